@@ -28,6 +28,7 @@ import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.reference.BlobStoreConstants;
 import org.jclouds.b2.blobstore.config.B2BlobStoreContextModule;
 import org.jclouds.b2.config.B2HttpApiModule;
+import org.jclouds.b2.reference.B2Constants;
 import org.jclouds.rest.internal.BaseHttpApiMetadata;
 
 import com.google.common.collect.ImmutableSet;
@@ -53,6 +54,11 @@ public final class B2ApiMetadata extends BaseHttpApiMetadata {
       properties.setProperty(Constants.PROPERTY_SESSION_INTERVAL, String.valueOf(TimeUnit.HOURS.toSeconds(1)));
       properties.setProperty(Constants.PROPERTY_IDEMPOTENT_METHODS, "DELETE,GET,HEAD,OPTIONS,POST,PUT");
       properties.setProperty(Constants.PROPERTY_RETRY_DELAY_START, String.valueOf(TimeUnit.SECONDS.toMillis(1)));
+      properties.setProperty(B2Constants.PROPERTY_UPLOAD_PARALLELISM, "4");
+      properties.setProperty(B2Constants.PROPERTY_UPLOAD_PART_RETRIES, "3");
+      properties.setProperty(B2Constants.PROPERTY_DOWNLOAD_PARALLELISM, "4");
+      properties.setProperty(B2Constants.PROPERTY_DOWNLOAD_RANGE_SIZE, String.valueOf(32L * 1024 * 1024));
+      properties.setProperty(B2Constants.PROPERTY_DOWNLOAD_RANGE_RETRIES, "3");
       return properties;
    }
 
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.b2.binders;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jclouds.io.Payload;
+import org.jclouds.io.payloads.BaseMutableContentMetadata;
+import org.jclouds.io.payloads.BasePayload;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+
+/**
+ * Sends the delegate payload followed by the 40 hex digits of its SHA-1, as B2 expects when the
+ * {@code X-Bz-Content-Sha1} header is {@code hex_digits_at_end}.  The hash is computed while the payload is written so
+ * the source is only read once.
+ */
+final class TrailingSha1Payload extends BasePayload<Payload> {
+   static final int SHA1_HEX_LENGTH = 40;
+
+   TrailingSha1Payload(Payload delegate) {
+      super(delegate, BaseMutableContentMetadata.fromContentMetadata(delegate.getContentMetadata()));
+      Long contentLength = delegate.getContentMetadata().getContentLength();
+      checkArgument(contentLength != null, "B2 requires a content length");
+      getContentMetadata().setContentLength(contentLength + SHA1_HEX_LENGTH);
+      getContentMetadata().setContentMD5((HashCode) null);
+   }
+
+   @Override
+   public InputStream openStream() throws IOException {
+      return new TrailingSha1InputStream(content.openStream());
+   }
+
+   @Override
+   public boolean isRepeatable() {
+      return content.isRepeatable();
+   }
+
+   @Override
+   public void release() {
+      content.release();
+   }
+
+   private static final class TrailingSha1InputStream extends InputStream {
+      private final HashingInputStream in;
+      private byte[] trailer;
+      private int trailerPosition;
+
+      TrailingSha1InputStream(InputStream in) {
+         this.in = new HashingInputStream(Hashing.sha1(), checkNotNull(in, "in"));
+      }
+
+      @Override
+      public int read() throws IOException {
+         byte[] b = new byte[1];
+         int n = read(b, 0, 1);
+         return n == -1 ? -1 : b[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+         if (len == 0) {
+            return 0;
+         }
+         if (trailer == null) {
+            int n = in.read(b, off, len);
+            if (n != -1) {
+               return n;
+            }
+            trailer = in.hash().toString().getBytes(StandardCharsets.US_ASCII);
+         }
+         if (trailerPosition == trailer.length) {
+            return -1;
+         }
+         int n = Math.min(len, trailer.length - trailerPosition);
+         System.arraycopy(trailer, trailerPosition, b, off, n);
+         trailerPosition += n;
+         return n;
+      }
+
+      @Override
+      public void close() throws IOException {
+         in.close();
+      }
+   }
+}
@@ -34,13 +34,16 @@ public final class UploadFileBinder implements MapBinder {
       UploadUrlResponse uploadUrl = (UploadUrlResponse) postParams.get("uploadUrl");
       String fileName = (String) postParams.get("fileName");
       Map<String, String> fileInfo = (Map<String, String>) postParams.get("fileInfo");
-      HttpRequest.Builder builder = request.toBuilder()
+      HttpRequest.Builder<?> builder = request.toBuilder()
             .endpoint(uploadUrl.uploadUrl())
             .replaceHeader(HttpHeaders.AUTHORIZATION, uploadUrl.authorizationToken())
             .replaceHeader(B2Headers.FILE_NAME, escaper.escape(fileName));
       for (Map.Entry<String, String> entry : fileInfo.entrySet()) {
          builder.replaceHeader(B2Headers.FILE_INFO_PREFIX + entry.getKey(), escaper.escape(entry.getValue()));
       }
+      if (B2Headers.HEX_DIGITS_AT_END.equals(request.getFirstHeaderOrNull(B2Headers.CONTENT_SHA1))) {
+         builder.payload(new TrailingSha1Payload(request.getPayload()));
+      }
       return (R) builder.build();
    }
 
@@ -20,6 +20,7 @@ import java.util.Map;
 
 import org.jclouds.http.HttpRequest;
 import org.jclouds.b2.domain.GetUploadPartResponse;
+import org.jclouds.b2.reference.B2Headers;
 import org.jclouds.rest.MapBinder;
 
 import com.google.common.net.HttpHeaders;
@@ -28,10 +29,13 @@ public final class UploadPartBinder implements MapBinder {
    @Override
    public <R extends HttpRequest> R bindToRequest(R request, Map<String, Object> postParams) {
       GetUploadPartResponse uploadUrl = (GetUploadPartResponse) postParams.get("response");
-      return (R) request.toBuilder()
+      HttpRequest.Builder<?> builder = request.toBuilder()
             .endpoint(uploadUrl.uploadUrl())
-            .replaceHeader(HttpHeaders.AUTHORIZATION, uploadUrl.authorizationToken())
-            .build();
+            .replaceHeader(HttpHeaders.AUTHORIZATION, uploadUrl.authorizationToken());
+      if (B2Headers.HEX_DIGITS_AT_END.equals(request.getFirstHeaderOrNull(B2Headers.CONTENT_SHA1))) {
+         builder.payload(new TrailingSha1Payload(request.getPayload()));
+      }
+      return (R) builder.build();
    }
 
    @Override
@@ -16,15 +16,33 @@
  */
 package org.jclouds.b2.blobstore;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.inject.Named;
 
+import org.jclouds.Constants;
 import org.jclouds.b2.B2Api;
 import org.jclouds.b2.B2ResponseException;
 import org.jclouds.b2.domain.Authorization;
@@ -40,8 +58,12 @@ import org.jclouds.b2.domain.MultipartUploadResponse;
 import org.jclouds.b2.domain.UploadFileResponse;
 import org.jclouds.b2.domain.UploadUrlResponse;
 import org.jclouds.b2.domain.UploadPartResponse;
+import org.jclouds.b2.internal.UploadUrlPool;
+import org.jclouds.b2.reference.B2Constants;
+import org.jclouds.b2.reference.B2Headers;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.ContainerNotFoundException;
+import org.jclouds.blobstore.KeyNotFoundException;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.BlobMetadata;
@@ -63,9 +85,11 @@ import org.jclouds.blobstore.options.CreateContainerOptions;
 import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.blobstore.strategy.internal.MultipartUploadSlicingAlgorithm;
 import org.jclouds.blobstore.util.BlobUtils;
 import org.jclouds.collect.Memoized;
 import org.jclouds.domain.Location;
+import org.jclouds.http.HttpResponseException;
 import org.jclouds.io.ByteStreams2;
 import org.jclouds.io.ContentMetadata;
 import org.jclouds.io.ContentMetadataBuilder;
@@ -73,6 +97,8 @@ import org.jclouds.io.MutableContentMetadata;
 import org.jclouds.io.Payload;
 import org.jclouds.io.PayloadSlicer;
 import org.jclouds.io.payloads.BaseMutableContentMetadata;
+import org.jclouds.logging.Logger;
+import org.jclouds.util.Closeables2;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -86,22 +112,56 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hashing;
 import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 public final class B2BlobStore extends BaseBlobStore {
+   private static final String LARGE_FILE_SHA1 = "large_file_sha1";
+   private static final String UNVERIFIED_PREFIX = "unverified:";
+
    private final B2Api api;
    private final BlobToHttpGetOptions blob2ObjectGetOptions;
    private final LoadingCache<String, Bucket> bucketNameToBucket;
    private final Supplier<Authorization> auth;
+   private final UploadUrlPool uploadUrls;
+   private final int uploadParallelism;
+   private final int partRetries;
+   private final ListeningExecutorService userExecutor;
+   private final int downloadParallelism;
+   private final long downloadRangeSize;
+   private final int rangeRetries;
+
+   @Resource
+   private Logger logger = Logger.NULL;
 
    @Inject
    B2BlobStore(BlobStoreContext context, BlobUtils blobUtils, Supplier<Location> defaultLocation,
             @Memoized Supplier<Set<? extends Location>> locations, PayloadSlicer slicer, final B2Api api,
-            BlobToHttpGetOptions blob2ObjectGetOptions, @Memoized Supplier<Authorization> auth) {
+            BlobToHttpGetOptions blob2ObjectGetOptions, @Memoized Supplier<Authorization> auth,
+            UploadUrlPool uploadUrls, @Named(B2Constants.PROPERTY_UPLOAD_PARALLELISM) int uploadParallelism,
+            @Named(B2Constants.PROPERTY_UPLOAD_PART_RETRIES) int partRetries,
+            @Named(Constants.PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+            @Named(B2Constants.PROPERTY_DOWNLOAD_PARALLELISM) int downloadParallelism,
+            @Named(B2Constants.PROPERTY_DOWNLOAD_RANGE_SIZE) long downloadRangeSize,
+            @Named(B2Constants.PROPERTY_DOWNLOAD_RANGE_RETRIES) int rangeRetries) {
       super(context, blobUtils, defaultLocation, locations, slicer);
+      Preconditions.checkArgument(uploadParallelism > 0, "upload parallelism must be positive");
+      Preconditions.checkArgument(partRetries >= 0, "part retries must not be negative");
+      Preconditions.checkArgument(downloadParallelism > 0, "download parallelism must be positive");
+      Preconditions.checkArgument(downloadRangeSize > 0, "download range size must be positive");
+      Preconditions.checkArgument(rangeRetries >= 0, "range retries must not be negative");
       this.api = api;
       this.blob2ObjectGetOptions = blob2ObjectGetOptions;
       this.auth = auth;
+      this.uploadUrls = uploadUrls;
+      this.uploadParallelism = uploadParallelism;
+      this.partRetries = partRetries;
+      this.userExecutor = userExecutor;
+      this.downloadParallelism = downloadParallelism;
+      this.downloadRangeSize = downloadRangeSize;
+      this.rangeRetries = rangeRetries;
       this.bucketNameToBucket = CacheBuilder.newBuilder()
             .expireAfterWrite(5, TimeUnit.MINUTES)
             .build(new CacheLoader<String, Bucket>() {
@@ -203,7 +263,6 @@ public final class B2BlobStore extends BaseBlobStore {
             if (options.getPrefix() != null && !entry.fileName().startsWith(options.getPrefix())) {
                continue;
             }
-
             if (delimiter != null) {
                String fileName = entry.fileName();
                int index = entry.fileName().indexOf(delimiter, Strings.nullToEmpty(options.getPrefix()).length());
@@ -253,50 +312,53 @@ public final class B2BlobStore extends BaseBlobStore {
 
    @Override
    public String putBlob(String container, Blob blob, PutOptions options) {
-      Preconditions.checkArgument(blob.getPayload().isRepeatable(), "B2 requires repeatable payload to calculate SHA1");
-
       if (options.getBlobAccess() != BlobAccess.PRIVATE) {
          throw new UnsupportedOperationException("B2 only supports private access blobs");
       }
 
       if (options.isMultipart()) {
+         // parts are sliced from the payload and uploaded concurrently
+         Preconditions.checkArgument(blob.getPayload().isRepeatable(), "B2 requires repeatable payload for multipart uploads");
          return putMultipartBlob(container, blob, options);
       } else {
-         String contentSha1;
-         try {
-            contentSha1 = ByteStreams2.hashAndClose(blob.getPayload().openStream(), Hashing.sha1()).toString();
-         } catch (IOException ioe) {
-            throw Throwables.propagate(ioe);
-         }
-
          String name = blob.getMetadata().getName();
 
          // B2 versions all files so we store the original fileId to delete it after the upload succeeds
          String oldFileId = getFileId(container, name);
 
          Bucket bucket = getBucket(container);
-         UploadUrlResponse uploadUrl = api.getObjectApi().getUploadUrl(bucket.bucketId());
-         UploadFileResponse uploadFile = api.getObjectApi().uploadFile(uploadUrl, name, contentSha1, blob.getMetadata().getUserMetadata(), blob.getPayload());
+         UploadUrlResponse uploadUrl = uploadUrls.leaseUploadUrl(bucket.bucketId());
+         UploadFileResponse uploadFile = null;
+         try {
+            uploadFile = api.getObjectApi().uploadFile(uploadUrl, name, B2Headers.HEX_DIGITS_AT_END, blob.getMetadata().getUserMetadata(), blob.getPayload());
+         } finally {
+            if (uploadFile != null) {
+               uploadUrls.releaseUploadUrl(uploadUrl);
+            } else {
+               // a URL whose upload failed is not used again
+               uploadUrls.forgetUploadUrl(uploadUrl);
+            }
+         }
 
          if (oldFileId != null) {
-            api.getObjectApi().deleteFileVersion(name, oldFileId);
+            try {
+               api.getObjectApi().deleteFileVersion(name, oldFileId);
+            } catch (KeyNotFoundException knfe) {
+               // another client deleted the old version meanwhile
+            }
          }
 
-         return uploadFile.contentSha1();  // B2 does not support ETag, fake it with SHA-1
+         return toETag(uploadFile.contentSha1());  // B2 does not support ETag, fake it with SHA-1
       }
    }
 
    @Override
    public BlobMetadata blobMetadata(String container, String name) {
-      String fileId = getFileId(container, name);
-      if (fileId == null) {
-         return null;
-      }
-
-      B2Object b2Object = api.getObjectApi().getFileInfo(fileId);
+      B2Object b2Object = api.getObjectApi().getFileInfoByName(container, name);
       if (b2Object == null) {
          return null;
       }
+      Closeables2.closeQuietly(b2Object.payload());
 
       return toBlobMetadata(container, b2Object);
    }
@@ -324,6 +386,179 @@ public final class B2BlobStore extends BaseBlobStore {
       return blob;
    }
 
+   @Override
+   public void downloadBlob(String container, String name, File destination) {
+      downloadBlob(container, name, destination, userExecutor);
+   }
+
+   /**
+    * Downloads the object as {@link B2Constants#PROPERTY_DOWNLOAD_RANGE_SIZE} byte ranges, fetching at most
+    * {@link B2Constants#PROPERTY_DOWNLOAD_PARALLELISM} ranges concurrently and writing each one at its offset in the
+    * destination.  A range that fails part way is resumed from the last byte written, up to
+    * {@link B2Constants#PROPERTY_DOWNLOAD_RANGE_RETRIES} times.  All ranges are fetched by the file id of the version
+    * found up front, so a concurrent replacement cannot mix two versions, and the assembled file is checked against
+    * that version's length and SHA-1.  The destination is deleted if the download fails.
+    */
+   @Override
+   public void downloadBlob(String container, String name, File destination, ExecutorService executor) {
+      B2Object b2Object = api.getObjectApi().getFileInfoByName(container, name);
+      if (b2Object == null) {
+         throw new KeyNotFoundException(container, name, "while downloading blob");
+      }
+      Closeables2.closeQuietly(b2Object.payload());
+      long contentLength = b2Object.contentLength();
+
+      List<Future<Void>> ranges = new ArrayList<Future<Void>>();
+      AtomicLong written = new AtomicLong();
+      boolean complete = false;
+      RandomAccessFile file = null;
+      try {
+         file = new RandomAccessFile(destination, "rw");
+         file.setLength(contentLength);
+         FileChannel channel = file.getChannel();
+
+         Semaphore permits = new Semaphore(downloadParallelism);
+         List<Future<Void>> inFlight = new ArrayList<Future<Void>>();
+         for (long start = 0; start < contentLength; start += downloadRangeSize) {
+            long end = Math.min(start + downloadRangeSize, contentLength) - 1;
+            permits.acquireUninterruptibly();
+            for (Iterator<Future<Void>> it = inFlight.iterator(); it.hasNext(); ) {
+               Future<Void> range = it.next();
+               if (range.isDone()) {
+                  // surface a failed range before requesting any further
+                  range.get();
+                  it.remove();
+               }
+            }
+            Future<Void> range = executor.submit(new RangeDownloader(b2Object.fileId(), start, end, channel, written,
+                  permits));
+            ranges.add(range);
+            inFlight.add(range);
+         }
+         for (Future<Void> range : ranges) {
+            range.get();
+         }
+         file.close();
+
+         if (written.get() != contentLength) {
+            throw new IOException("downloaded " + written.get() + " bytes of " + name + " instead of " + contentLength);
+         }
+         String expectedSha1 = expectedSha1(b2Object);
+         if (expectedSha1 != null) {
+            String sha1 = ByteStreams2.hashAndClose(new FileInputStream(destination), Hashing.sha1()).toString();
+            if (!sha1.equals(expectedSha1)) {
+               throw new IOException("SHA-1 of downloaded " + name + " is " + sha1 + " instead of " + expectedSha1);
+            }
+         }
+         complete = true;
+      } catch (IOException ioe) {
+         throw Throwables.propagate(ioe);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(ie);
+      } catch (ExecutionException ee) {
+         throw Throwables.propagate(ee.getCause());
+      } finally {
+         for (Future<Void> range : ranges) {
+            range.cancel(true);
+         }
+         Closeables2.closeQuietly(file);
+         if (!complete && !destination.delete()) {
+            logger.warn("could not delete partial download %s", destination);
+         }
+      }
+   }
+
+   /** Returns the SHA-1 B2 recorded for the whole file, or null when it has none. */
+   private static String expectedSha1(B2Object b2Object) {
+      String sha1 = b2Object.contentSha1();
+      if (sha1 == null || sha1.equals("none")) {
+         // large files only carry the SHA-1 their uploader chose to record
+         sha1 = b2Object.fileInfo().get(LARGE_FILE_SHA1);
+      }
+      return toETag(sha1);
+   }
+
+   /**
+    * Returns a SHA-1 reported by B2 as an ETag.  Files and parts uploaded with the SHA-1 at the end report it with an
+    * {@code unverified:} prefix, which is not part of the hash.
+    */
+   private static String toETag(String sha1) {
+      if (sha1 != null && sha1.startsWith(UNVERIFIED_PREFIX)) {
+         return sha1.substring(UNVERIFIED_PREFIX.length());
+      }
+      return sha1;
+   }
+
+   private final class RangeDownloader implements Callable<Void> {
+      private final String fileId;
+      private final long end;
+      private final FileChannel channel;
+      private final AtomicLong written;
+      private final Semaphore permits;
+      private long position;
+
+      RangeDownloader(String fileId, long start, long end, FileChannel channel, AtomicLong written,
+            Semaphore permits) {
+         this.fileId = fileId;
+         this.position = start;
+         this.end = end;
+         this.channel = channel;
+         this.written = written;
+         this.permits = permits;
+      }
+
+      @Override
+      public Void call() throws IOException {
+         try {
+            for (int attempt = 0; ; attempt++) {
+               try {
+                  download();
+                  return null;
+               } catch (IOException ioe) {
+                  if (attempt >= rangeRetries) {
+                     throw ioe;
+                  }
+                  logger.debug("resuming %s at byte %d after: %s", fileId, position, ioe.getMessage());
+               } catch (HttpResponseException hre) {
+                  if (attempt >= rangeRetries) {
+                     throw hre;
+                  }
+                  logger.debug("resuming %s at byte %d after: %s", fileId, position, hre.getMessage());
+               }
+            }
+         } finally {
+            permits.release();
+         }
+      }
+
+      private void download() throws IOException {
+         B2Object b2Object = api.getObjectApi().downloadFileById(fileId,
+               blob2ObjectGetOptions.apply(new GetOptions().range(position, end)));
+         if (b2Object == null) {
+            throw new KeyNotFoundException(null, fileId, "while downloading range");
+         }
+         InputStream is = b2Object.payload().openStream();
+         try {
+            byte[] buffer = new byte[64 * 1024];
+            while (position <= end) {
+               int read = is.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1));
+               if (read == -1) {
+                  throw new EOFException("range ended at byte " + position + " instead of " + end);
+               }
+               ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+               while (bytes.hasRemaining()) {
+                  int count = channel.write(bytes, position);
+                  position += count;
+                  written.addAndGet(count);
+               }
+            }
+         } finally {
+            is.close();
+         }
+      }
+   }
+
    @Override
    public void removeBlob(String container, String name) {
       String fileId = getFileId(container, name);
@@ -363,6 +598,7 @@ public final class B2BlobStore extends BaseBlobStore {
       Bucket bucket = getBucket(container);
       try {
          api.getBucketApi().deleteBucket(bucket.bucketId());
+         uploadUrls.removeBucket(bucket.bucketId());
       } catch (B2ResponseException bre) {
          if (bre.getError().code().equals("cannot_delete_non_empty_bucket")) {
             return false;
@@ -382,6 +618,7 @@ public final class B2BlobStore extends BaseBlobStore {
    @Override
    public void abortMultipartUpload(MultipartUpload mpu) {
       api.getMultipartApi().cancelLargeFile(mpu.id());
+      uploadUrls.removeLargeFile(mpu.id());
    }
 
    @Override
@@ -391,24 +628,124 @@ public final class B2BlobStore extends BaseBlobStore {
          sha1.add(part.partETag());
       }
       B2Object b2Object = api.getMultipartApi().finishLargeFile(mpu.id(), sha1.build());
+      uploadUrls.removeLargeFile(mpu.id());
       return b2Object.contentSha1();  // this is always "none"
    }
 
+   /**
+    * Uploads the parts of a large file concurrently.  At most {@link B2Constants#PROPERTY_UPLOAD_PARALLELISM} parts are
+    * in flight at once, which also bounds how far slicing runs ahead of the uploads.  Each part leases its own upload
+    * URL.  A part refused because B2 was busy or timed out is re-sent on a fresh URL up to
+    * {@link B2Constants#PROPERTY_UPLOAD_PART_RETRIES} times before the large file is cancelled; server errors are only
+    * retried by {@link org.jclouds.b2.filters.B2RetryHandler}.
+    */
    @Override
-   public MultipartPart uploadMultipartPart(MultipartUpload mpu, int partNumber, Payload payload) {
-      Preconditions.checkArgument(payload.isRepeatable());
-
-      String contentSha1;
+   protected String putMultipartBlob(String container, Blob blob, PutOptions overrides,
+         ListeningExecutorService executor) {
+      MultipartUpload mpu = initiateMultipartUpload(container, blob.getMetadata(), overrides);
+      List<ListenableFuture<MultipartPart>> parts = new ArrayList<ListenableFuture<MultipartPart>>();
       try {
-         contentSha1 = ByteStreams2.hashAndClose(payload.openStream(), Hashing.sha1()).toString();
-      } catch (IOException ioe) {
-         throw Throwables.propagate(ioe);
+         long contentLength = blob.getMetadata().getContentMetadata().getContentLength();
+         MultipartUploadSlicingAlgorithm algorithm = new MultipartUploadSlicingAlgorithm(
+               getMinimumMultipartPartSize(), getMaximumMultipartPartSize(), getMaximumNumberOfParts());
+         long partSize = algorithm.calculateChunkSize(contentLength);
+
+         Semaphore permits = new Semaphore(uploadParallelism);
+         List<ListenableFuture<MultipartPart>> inFlight = new ArrayList<ListenableFuture<MultipartPart>>();
+         int partNumber = 1;
+         for (Payload payload : slicer.slice(blob.getPayload(), partSize)) {
+            permits.acquireUninterruptibly();
+            for (Iterator<ListenableFuture<MultipartPart>> it = inFlight.iterator(); it.hasNext(); ) {
+               ListenableFuture<MultipartPart> part = it.next();
+               if (part.isDone()) {
+                  // surface a failed part before slicing any further
+                  Futures.getUnchecked(part);
+                  it.remove();
+               }
+            }
+            ListenableFuture<MultipartPart> part = executor.submit(new PartUploader(mpu, partNumber++, payload, permits));
+            parts.add(part);
+            inFlight.add(part);
+         }
+
+         // allAsList preserves submission order, which is the part order finishLargeFile expects
+         return completeMultipartUpload(mpu, Futures.getUnchecked(Futures.allAsList(parts)));
+      } catch (RuntimeException re) {
+         for (ListenableFuture<MultipartPart> part : parts) {
+            part.cancel(true);
+         }
+         abortMultipartUpload(mpu);
+         throw re;
+      }
+   }
+
+   private final class PartUploader implements Callable<MultipartPart> {
+      private final MultipartUpload mpu;
+      private final int partNumber;
+      private final Payload payload;
+      private final Semaphore permits;
+
+      PartUploader(MultipartUpload mpu, int partNumber, Payload payload, Semaphore permits) {
+         this.mpu = mpu;
+         this.partNumber = partNumber;
+         this.payload = payload;
+         this.permits = permits;
       }
 
-      GetUploadPartResponse getUploadPart = api.getMultipartApi().getUploadPartUrl(mpu.id());
-      UploadPartResponse uploadPart = api.getMultipartApi().uploadPart(getUploadPart, partNumber, contentSha1, payload);
+      @Override
+      public MultipartPart call() {
+         try {
+            for (int attempt = 0; ; attempt++) {
+               try {
+                  return uploadMultipartPart(mpu, partNumber, payload);
+               } catch (HttpResponseException hre) {
+                  if (attempt >= partRetries || !payload.isRepeatable() || !isRetriedPerPart(hre)) {
+                     throw hre;
+                  }
+                  logger.debug("retrying part %d of %s after: %s", partNumber, mpu.blobName(), hre.getMessage());
+               }
+            }
+         } finally {
+            permits.release();
+         }
+      }
+   }
 
-      return MultipartPart.create(uploadPart.partNumber(), uploadPart.contentLength(), uploadPart.contentSha1());
+   /**
+    * Whether a failed part is re-sent by {@link PartUploader}.  Only the transient errors that
+    * {@link org.jclouds.b2.filters.B2RetryHandler} does not retry itself are, so that a failure is never retried by
+    * both.
+    */
+   private static boolean isRetriedPerPart(HttpResponseException hre) {
+      if (hre.getResponse() == null) {
+         return false;
+      }
+      switch (hre.getResponse().getStatusCode()) {
+      case 408:
+      case 429:
+         return true;
+      default:
+         return false;
+      }
+   }
+
+   @Override
+   public MultipartPart uploadMultipartPart(MultipartUpload mpu, int partNumber, Payload payload) {
+      GetUploadPartResponse getUploadPart = uploadUrls.leaseUploadPartUrl(mpu.id());
+      UploadPartResponse uploadPart = null;
+      try {
+         uploadPart = api.getMultipartApi().uploadPart(getUploadPart, partNumber, B2Headers.HEX_DIGITS_AT_END, payload);
+      } finally {
+         if (uploadPart != null) {
+            uploadUrls.releaseUploadPartUrl(getUploadPart);
+         } else {
+            // a URL whose upload failed is not used again
+            uploadUrls.forgetUploadPartUrl(getUploadPart);
+         }
+      }
+
+      return MultipartPart.create(uploadPart.partNumber(), uploadPart.contentLength(),
+            toETag(uploadPart.contentSha1()));
    }
 
    @Override
@@ -416,7 +753,7 @@ public final class B2BlobStore extends BaseBlobStore {
       ListPartsResponse response = api.getMultipartApi().listParts(mpu.id(), null, null);
       ImmutableList.Builder<MultipartPart> parts = ImmutableList.builder();
       for (ListPartsResponse.Entry entry : response.parts()) {
-         parts.add(MultipartPart.create(entry.partNumber(), entry.contentLength(), entry.contentSha1()));
+         parts.add(MultipartPart.create(entry.partNumber(), entry.contentLength(), toETag(entry.contentSha1())));
       }
       return parts.build();
    }
@@ -469,25 +806,24 @@ public final class B2BlobStore extends BaseBlobStore {
       return bucket;
    }
 
+   /**
+    * Returns the id of the live version of a file, or null when there is none.  A HEAD by name finds it in one request
+    * and always sees the version another client uploaded last.
+    */
    private String getFileId(String container, String name) {
-      Bucket bucket = getBucket(container);
-      B2ObjectList list = api.getObjectApi().listFileNames(bucket.bucketId(), name, 1);
-      if (list.files().isEmpty()) {
-         return null;
-      }
-
-      B2ObjectList.Entry entry = list.files().get(0);
-      if (!entry.fileName().equals(name)) {
+      getBucket(container);  // fails for a missing container
+      B2Object b2Object = api.getObjectApi().getFileInfoByName(container, name);
+      if (b2Object == null) {
          return null;
       }
-
-      return entry.fileId();
+      Closeables2.closeQuietly(b2Object.payload());
+      return b2Object.fileId();
    }
 
    private MutableBlobMetadata toBlobMetadata(String container, B2Object b2Object) {
       MutableBlobMetadata metadata = new MutableBlobMetadataImpl();
       metadata.setContainer(container);
-      metadata.setETag(b2Object.contentSha1());  // B2 does not support ETag, fake it with SHA-1
+      metadata.setETag(toETag(b2Object.contentSha1()));  // B2 does not support ETag, fake it with SHA-1
       metadata.setLastModified(b2Object.uploadTimestamp());
       metadata.setName(b2Object.fileName());
       metadata.setSize(b2Object.contentLength());
@@ -61,6 +61,7 @@ public final class B2HttpApiModule extends HttpApiModule<B2Api> {
 
    @Override
    protected void bindRetryHandlers() {
+      bind(HttpRetryHandler.class).annotatedWith(ClientError.class).to(B2RetryHandler.class);
       bind(HttpRetryHandler.class).annotatedWith(ServerError.class).to(B2RetryHandler.class);
    }
 
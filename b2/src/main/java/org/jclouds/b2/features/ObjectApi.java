@@ -24,6 +24,7 @@ import java.util.Map;
 import javax.inject.Named;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -121,6 +122,15 @@ public interface ObjectApi {
    @Fallback(NullOnNotFoundOr404.class)
    B2Object downloadFileByName(@PathParam("bucketName") String bucketName, @PathParam("fileName") String fileName, GetOptions options);
 
+   /** Fetches file information from the headers of a HEAD request, which returns no content. */
+   @Named("b2_download_file_by_name")
+   @HEAD
+   @Path("/file/{bucketName}/{fileName}")
+   @RequestFilters(RequestAuthorizationDownload.class)
+   @ResponseParser(ParseB2ObjectFromResponse.class)
+   @Fallback(NullOnNotFoundOr404.class)
+   B2Object getFileInfoByName(@PathParam("bucketName") String bucketName, @PathParam("fileName") String fileName);
+
    @Named("b2_list_file_names")
    @GET
    @Path("/b2api/v1/b2_list_file_names")
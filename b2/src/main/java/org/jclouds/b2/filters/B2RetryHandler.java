@@ -25,6 +25,7 @@ import javax.inject.Inject;
 import org.jclouds.b2.B2Api;
 import org.jclouds.b2.domain.GetUploadPartResponse;
 import org.jclouds.b2.domain.UploadUrlResponse;
+import org.jclouds.b2.internal.UploadUrlPool;
 import org.jclouds.http.HttpCommand;
 import org.jclouds.http.HttpException;
 import org.jclouds.http.HttpRequest;
@@ -39,13 +40,15 @@ import com.google.inject.Singleton;
 @Singleton
 public final class B2RetryHandler extends BackoffLimitedRetryHandler implements HttpRequestFilter {
    private final B2Api api;
+   private final UploadUrlPool uploadUrls;
 
    @Resource
    private Logger logger = Logger.NULL;
 
    @Inject
-   B2RetryHandler(B2Api api) {
+   B2RetryHandler(B2Api api, UploadUrlPool uploadUrls) {
       this.api = api;
+      this.uploadUrls = uploadUrls;
    }
 
    @Override
@@ -54,14 +57,21 @@ public final class B2RetryHandler extends BackoffLimitedRetryHandler implements
 
       // B2 requires retrying on a different storage node for uploads
       String path = request.getEndpoint().getPath();
+      String authorizationToken = request.getFirstHeaderOrNull(HttpHeaders.AUTHORIZATION);
       if (path.startsWith("/b2api/v1/b2_upload_file")) {
-         String bucketId = path.split("/")[4];
-         UploadUrlResponse uploadUrl = api.getObjectApi().getUploadUrl(bucketId);
+         UploadUrlResponse uploadUrl = uploadUrls.replaceUploadUrl(authorizationToken);
+         if (uploadUrl == null) {
+            String bucketId = path.split("/")[4];
+            uploadUrl = api.getObjectApi().getUploadUrl(bucketId);
+         }
          builder.endpoint(uploadUrl.uploadUrl())
                .replaceHeader(HttpHeaders.AUTHORIZATION, uploadUrl.authorizationToken());
       } else if (path.startsWith("/b2api/v1/b2_upload_part")) {
-         String fileId = path.split("/")[4];
-         GetUploadPartResponse uploadUrl = api.getMultipartApi().getUploadPartUrl(fileId);
+         GetUploadPartResponse uploadUrl = uploadUrls.replaceUploadPartUrl(authorizationToken);
+         if (uploadUrl == null) {
+            String fileId = path.split("/")[4];
+            uploadUrl = api.getMultipartApi().getUploadPartUrl(fileId);
+         }
          builder.endpoint(uploadUrl.uploadUrl())
                .replaceHeader(HttpHeaders.AUTHORIZATION, uploadUrl.authorizationToken());
       }
@@ -75,6 +85,10 @@ public final class B2RetryHandler extends BackoffLimitedRetryHandler implements
       try {
          byte[] data = closeClientButKeepContentStream(response);
          switch (response.getStatusCode()) {
+         case 401:
+            // Upload authorization tokens expire, the upload is retried with a new upload URL
+            retry = isUpload(command.getCurrentRequest()) && super.shouldRetryRequest(command, response);
+            break;
          case 500:
          case 503:
             retry = super.shouldRetryRequest(command, response);
@@ -82,9 +96,17 @@ public final class B2RetryHandler extends BackoffLimitedRetryHandler implements
          default:
             break;
          }
+         if (retry && isUpload(command.getCurrentRequest())) {
+            command.setCurrentRequest(filter(command.getCurrentRequest()));
+         }
       } finally {
          releasePayload(response);
       }
       return retry;
    }
+
+   private static boolean isUpload(HttpRequest request) {
+      String path = request.getEndpoint().getPath();
+      return path.startsWith("/b2api/v1/b2_upload_file") || path.startsWith("/b2api/v1/b2_upload_part");
+   }
 }
@@ -21,6 +21,7 @@ import org.jclouds.blobstore.KeyNotFoundException;
 import org.jclouds.http.HttpCommand;
 import org.jclouds.http.HttpErrorHandler;
 import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
 import org.jclouds.http.functions.ParseJson;
 import org.jclouds.json.Json;
 import org.jclouds.b2.B2ResponseException;
@@ -54,6 +55,11 @@ public final class ParseB2ErrorFromJsonContent extends ParseJson<B2Error> implem
 
    @Override
    public void handleError(HttpCommand command, HttpResponse response) {
+      if (command.getCurrentRequest().getMethod().equals("HEAD")) {
+         // HEAD responses carry no error body to parse
+         command.setException(new HttpResponseException(command, response));
+         return;
+      }
       B2Error error = this.apply(response);
       Exception exception = refineException(error, new B2ResponseException(command, response, error));
       command.setException(exception);
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.b2.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.jclouds.b2.B2Api;
+import org.jclouds.b2.domain.GetUploadPartResponse;
+import org.jclouds.b2.domain.UploadUrlResponse;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Reuses the upload URLs of buckets and large files across uploads. B2 lets an upload URL and its authorization
+ * token be used by one uploader at a time, so a URL is leased to a single upload and only returned to the pool once
+ * the upload succeeds. URLs refused by B2 are replaced by {@link org.jclouds.b2.filters.B2RetryHandler} and never
+ * leased again, and URLs whose token is close to expiring are dropped instead of being leased.
+ */
+@Singleton
+public final class UploadUrlPool {
+   // B2 upload authorization tokens are valid for a day
+   private static final long LEASE_EXPIRY_HOURS = 24;
+   // Idle URLs are dropped an hour before their token expires so an upload never starts with a dead token
+   private static final long IDLE_EXPIRY_HOURS = 23;
+
+   private final Leases<UploadUrlResponse> uploadUrls;
+   private final Leases<GetUploadPartResponse> uploadPartUrls;
+
+   @Inject
+   UploadUrlPool(B2Api api) {
+      this(api, Ticker.systemTicker());
+   }
+
+   @VisibleForTesting
+   UploadUrlPool(final B2Api api, Ticker ticker) {
+      this.uploadUrls = new Leases<UploadUrlResponse>(ticker) {
+         @Override
+         UploadUrlResponse fetch(String bucketId) {
+            return api.getObjectApi().getUploadUrl(bucketId);
+         }
+
+         @Override
+         String authorizationToken(UploadUrlResponse uploadUrl) {
+            return uploadUrl.authorizationToken();
+         }
+      };
+      this.uploadPartUrls = new Leases<GetUploadPartResponse>(ticker) {
+         @Override
+         GetUploadPartResponse fetch(String fileId) {
+            return api.getMultipartApi().getUploadPartUrl(fileId);
+         }
+
+         @Override
+         String authorizationToken(GetUploadPartResponse uploadUrl) {
+            return uploadUrl.authorizationToken();
+         }
+      };
+   }
+
+   /** Leases an upload URL of a bucket, getting a new one from B2 if none is idle. */
+   public UploadUrlResponse leaseUploadUrl(String bucketId) {
+      return uploadUrls.lease(bucketId);
+   }
+
+   /** Returns an upload URL after a successful upload, unless it has been replaced since it was leased. */
+   public void releaseUploadUrl(UploadUrlResponse uploadUrl) {
+      uploadUrls.release(uploadUrl);
+   }
+
+   /** Forgets a leased upload URL after a failed upload, without returning it to the pool. */
+   public void forgetUploadUrl(UploadUrlResponse uploadUrl) {
+      uploadUrls.forget(uploadUrl);
+   }
+
+   /**
+    * Replaces a leased upload URL that B2 refused.
+    *
+    * @return a new upload URL for the same bucket, or null if the token was not leased from this pool
+    */
+   public UploadUrlResponse replaceUploadUrl(String authorizationToken) {
+      return uploadUrls.replace(authorizationToken);
+   }
+
+   /** Forgets the idle upload URLs of a deleted bucket. */
+   public void removeBucket(String bucketId) {
+      uploadUrls.remove(bucketId);
+   }
+
+   /** Leases an upload URL of a large file, getting a new one from B2 if none is idle. */
+   public GetUploadPartResponse leaseUploadPartUrl(String fileId) {
+      return uploadPartUrls.lease(fileId);
+   }
+
+   /** Returns an upload part URL after a successful upload, unless it has been replaced since it was leased. */
+   public void releaseUploadPartUrl(GetUploadPartResponse uploadUrl) {
+      uploadPartUrls.release(uploadUrl);
+   }
+
+   /** Forgets a leased upload part URL after a failed upload, without returning it to the pool. */
+   public void forgetUploadPartUrl(GetUploadPartResponse uploadUrl) {
+      uploadPartUrls.forget(uploadUrl);
+   }
+
+   /**
+    * Replaces a leased upload part URL that B2 refused.
+    *
+    * @return a new upload URL for the same large file, or null if the token was not leased from this pool
+    */
+   public GetUploadPartResponse replaceUploadPartUrl(String authorizationToken) {
+      return uploadPartUrls.replace(authorizationToken);
+   }
+
+   /** Forgets the idle upload URLs of a large file once it is finished or canceled. */
+   public void removeLargeFile(String fileId) {
+      uploadPartUrls.remove(fileId);
+   }
+
+   private abstract static class Leases<T> {
+      private final Ticker ticker;
+      private final ConcurrentMap<String, Queue<Lease<T>>> idle = new ConcurrentHashMap<String, Queue<Lease<T>>>();
+      // URLs currently leased, by authorization token
+      private final Cache<String, Lease<T>> leased = CacheBuilder.newBuilder()
+            .expireAfterWrite(LEASE_EXPIRY_HOURS, TimeUnit.HOURS)
+            .build();
+
+      Leases(Ticker ticker) {
+         this.ticker = ticker;
+      }
+
+      abstract T fetch(String id);
+
+      abstract String authorizationToken(T uploadUrl);
+
+      T lease(String id) {
+         Queue<Lease<T>> urls = idle.get(id);
+         Lease<T> lease = null;
+         if (urls != null) {
+            long oldest = ticker.read() - TimeUnit.HOURS.toNanos(IDLE_EXPIRY_HOURS);
+            do {
+               lease = urls.poll();
+            } while (lease != null && lease.fetched - oldest < 0);
+         }
+         if (lease == null) {
+            lease = new Lease<T>(id, fetch(id), ticker.read());
+         }
+         leased.put(authorizationToken(lease.uploadUrl), lease);
+         return lease.uploadUrl;
+      }
+
+      void release(T uploadUrl) {
+         Lease<T> lease = leased.asMap().remove(authorizationToken(uploadUrl));
+         if (lease == null) {
+            return;
+         }
+         Queue<Lease<T>> urls = idle.get(lease.id);
+         if (urls == null) {
+            Queue<Lease<T>> created = new ConcurrentLinkedQueue<Lease<T>>();
+            urls = idle.putIfAbsent(lease.id, created);
+            if (urls == null) {
+               urls = created;
+            }
+         }
+         urls.offer(lease);
+      }
+
+      void forget(T uploadUrl) {
+         leased.invalidate(authorizationToken(uploadUrl));
+      }
+
+      T replace(String authorizationToken) {
+         Lease<T> lease = authorizationToken == null ? null : leased.asMap().remove(authorizationToken);
+         if (lease == null) {
+            return null;
+         }
+         T uploadUrl = fetch(lease.id);
+         // The replacement is not returned to the pool, but can be replaced again if it fails too
+         leased.put(authorizationToken(uploadUrl), new Lease<T>(lease.id, uploadUrl, ticker.read()));
+         return uploadUrl;
+      }
+
+      void remove(String id) {
+         idle.remove(id);
+      }
+   }
+
+   private static final class Lease<T> {
+      // Bucket or large file id
+      final String id;
+      final T uploadUrl;
+      // Ticker time the URL was fetched from B2
+      final long fetched;
+
+      Lease(String id, T uploadUrl, long fetched) {
+         this.id = id;
+         this.uploadUrl = uploadUrl;
+         this.fetched = fetched;
+      }
+   }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.b2.reference;
+
+public final class B2Constants {
+   /** Maximum number of parts a multipart putBlob uploads concurrently. */
+   public static final String PROPERTY_UPLOAD_PARALLELISM = "jclouds.b2.upload.parallelism";
+   /**
+    * Number of times a multipart putBlob re-sends a part refused with 408 or 429 before aborting the large file.
+    * Server errors are retried by the HTTP layer instead.
+    */
+   public static final String PROPERTY_UPLOAD_PART_RETRIES = "jclouds.b2.upload.part-retries";
+   /** Maximum number of byte ranges downloadBlob fetches concurrently. */
+   public static final String PROPERTY_DOWNLOAD_PARALLELISM = "jclouds.b2.download.parallelism";
+   /** Size in bytes of the ranges downloadBlob splits an object into. */
+   public static final String PROPERTY_DOWNLOAD_RANGE_SIZE = "jclouds.b2.download.range-size";
+   /** Number of times downloadBlob resumes a failed range before giving up. */
+   public static final String PROPERTY_DOWNLOAD_RANGE_RETRIES = "jclouds.b2.download.range-retries";
+
+   private B2Constants() {
+      throw new AssertionError("intentionally unimplemented");
+   }
+}
@@ -18,6 +18,11 @@ package org.jclouds.b2.reference;
 
 public final class B2Headers {
    public static final String CONTENT_SHA1 = "X-Bz-Content-Sha1";
+   /**
+    * Value for {@link #CONTENT_SHA1} indicating that the 40 hex digits of the SHA-1 follow the content in the request
+    * body instead of being sent up front.
+    */
+   public static final String HEX_DIGITS_AT_END = "hex_digits_at_end";
    public static final String FILE_ID = "X-Bz-File-Id";
    public static final String FILE_NAME = "X-Bz-File-Name";
    public static final String UPLOAD_TIMESTAMP = "X-Bz-Upload-Timestamp";
@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.b2.blobstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.jclouds.blobstore.options.PutOptions.Builder.multipart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.b2.reference.B2Constants;
+import org.jclouds.b2.reference.B2Headers;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.concurrent.config.ExecutorServiceModule;
+import org.jclouds.util.Strings2;
+import org.jclouds.utils.TestUtils;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.google.common.net.HttpHeaders;
+import com.google.gson.JsonParser;
+import com.google.inject.Module;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+
+@Test(groups = "unit", testName = "B2BlobStoreMockTest")
+public final class B2BlobStoreMockTest {
+   private static final String CONTAINER = "Kitten Videos";
+   private static final String FILE_ID = "4_za71f544e781e6891531b001a_f200ec353a2184825_d20160409_m004829_c000_v0001016_t0028";
+   private static final long PART_SIZE = 32L * 1024 * 1024;
+
+   public void testMultipartUploadRunsPartsConcurrently() throws Exception {
+      final AtomicInteger tokens = new AtomicInteger();
+      final AtomicInteger inFlight = new AtomicInteger();
+      final AtomicInteger maxInFlight = new AtomicInteger();
+      final Map<Integer, List<String>> partTokens = new ConcurrentHashMap<Integer, List<String>>();
+      final List<String> finishRequests = new CopyOnWriteArrayList<String>();
+
+      final MockWebServer server = new MockWebServer();
+      // only keep small bodies, the parts are not inspected
+      server.setBodyLimit(64 * 1024);
+      server.setDispatcher(new Dispatcher() {
+         @Override
+         public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            String path = request.getPath();
+            try {
+               if (path.equals("/b2api/v1/b2_authorize_account")) {
+                  return new MockResponse().setBody(stringFromResource("/authorize_account_response.json")
+                        .replace("100000000", "5000000"));
+               } else if (path.equals("/b2api/v1/b2_list_buckets")) {
+                  return new MockResponse().setBody(stringFromResource("/list_buckets_response.json"));
+               } else if (path.equals("/b2api/v1/b2_start_large_file")) {
+                  return new MockResponse().setBody(stringFromResource("/start_large_file_response.json"));
+               } else if (path.equals("/b2api/v1/b2_get_upload_part_url")) {
+                  String token = "TOKEN-" + tokens.incrementAndGet();
+                  return new MockResponse().setBody("{\"fileId\": \"" + FILE_ID + "\", \"uploadUrl\": \""
+                        + server.getUrl("/b2api/v1/b2_upload_part/" + FILE_ID + "/" + token)
+                        + "\", \"authorizationToken\": \"" + token + "\"}");
+               } else if (path.startsWith("/b2api/v1/b2_upload_part/")) {
+                  return uploadPart(request);
+               } else if (path.equals("/b2api/v1/b2_finish_large_file")) {
+                  finishRequests.add(new String(request.getBody(), StandardCharsets.UTF_8));
+                  return new MockResponse().setBody(stringFromResource("/finish_large_file_response.json"));
+               }
+            } catch (IOException ioe) {
+               throw new AssertionError(ioe);
+            }
+            return new MockResponse().setResponseCode(404);
+         }
+
+         private MockResponse uploadPart(RecordedRequest request) throws InterruptedException {
+            int partNumber = Integer.parseInt(request.getHeader("X-Bz-Part-Number"));
+            assertThat(request.getHeader(B2Headers.CONTENT_SHA1)).isEqualTo(B2Headers.HEX_DIGITS_AT_END);
+            List<String> attempts = partTokens.get(partNumber);
+            if (attempts == null) {
+               attempts = new CopyOnWriteArrayList<String>();
+               partTokens.put(partNumber, attempts);
+            }
+            attempts.add(request.getHeader(HttpHeaders.AUTHORIZATION));
+
+            int current = inFlight.incrementAndGet();
+            try {
+               while (true) {
+                  int max = maxInFlight.get();
+                  if (current <= max || maxInFlight.compareAndSet(max, current)) {
+                     break;
+                  }
+               }
+               Thread.sleep(200);
+            } finally {
+               inFlight.decrementAndGet();
+            }
+
+            if (partNumber == 2 && attempts.size() == 1) {
+               // not retried by B2RetryHandler, so the blob store re-sends the part
+               return new MockResponse().setResponseCode(429)
+                     .setBody("{\"status\": 429, \"code\": \"too_many_requests\", \"message\": \"slow down\"}");
+            }
+            long contentLength = Long.parseLong(request.getHeader(HttpHeaders.CONTENT_LENGTH)) - 40;
+            return new MockResponse().setBody("{\"contentLength\": " + contentLength + ", \"contentSha1\": \""
+                  + partSha1(partNumber) + "\", \"fileId\": \"" + FILE_ID + "\", \"partNumber\": " + partNumber + "}");
+         }
+      });
+      server.play();
+
+      Properties overrides = new Properties();
+      overrides.setProperty(B2Constants.PROPERTY_UPLOAD_PARALLELISM, "2");
+      ExecutorService executor = Executors.newCachedThreadPool();
+      BlobStoreContext context = context(server, overrides, executor);
+      try {
+         BlobStore blobStore = context.getBlobStore();
+         long contentLength = 3 * PART_SIZE + 1000;
+         ByteSource content = knownSize(TestUtils.randomByteSource().slice(0, contentLength), contentLength);
+         Blob blob = blobStore.blobBuilder("large-file")
+               .payload(content)
+               .contentLength(contentLength)
+               .build();
+         blobStore.putBlob(CONTAINER, blob, multipart());
+
+         assertThat(partTokens.keySet()).containsOnly(1, 2, 3, 4);
+         assertThat(maxInFlight.get()).isEqualTo(2);
+
+         // the failed part is re-sent on a fresh upload URL
+         assertThat(partTokens.get(2)).hasSize(2);
+         assertThat(partTokens.get(2).get(0)).isNotEqualTo(partTokens.get(2).get(1));
+
+         assertThat(finishRequests).hasSize(1);
+         assertThat(new JsonParser().parse(finishRequests.get(0)).getAsJsonObject().get("partSha1Array"))
+               .isEqualTo(new JsonParser().parse("[\"" + partSha1(1) + "\", \"" + partSha1(2) + "\", \""
+                     + partSha1(3) + "\", \"" + partSha1(4) + "\"]"));
+      } finally {
+         context.close();
+         executor.shutdownNow();
+         executor.awaitTermination(10, TimeUnit.SECONDS);
+         server.shutdown();
+      }
+   }
+
+   public void testDownloadBlobFetchesRangesConcurrently() throws Exception {
+      byte[] content = new byte[4500];
+      new Random().nextBytes(content);
+      RangeDispatcher dispatcher = new RangeDispatcher(content, content);
+      MockWebServer server = new MockWebServer();
+      server.setDispatcher(dispatcher);
+      server.play();
+
+      Properties overrides = new Properties();
+      overrides.setProperty(B2Constants.PROPERTY_DOWNLOAD_PARALLELISM, "2");
+      overrides.setProperty(B2Constants.PROPERTY_DOWNLOAD_RANGE_SIZE, "1000");
+      ExecutorService executor = Executors.newCachedThreadPool();
+      BlobStoreContext context = context(server, overrides, executor);
+      File destination = File.createTempFile("B2BlobStoreMockTest", ".bin");
+      try {
+         context.getBlobStore().downloadBlob("kitten-videos", "large-file", destination);
+
+         assertThat(Files.toByteArray(destination)).isEqualTo(content);
+         assertThat(dispatcher.maxInFlight.get()).isEqualTo(2);
+         // every range is fetched from the version found up front
+         assertThat(dispatcher.paths).containsOnly("/b2api/v1/b2_download_file_by_id?fileId=" + FILE_ID);
+         // the interrupted range resumes from the last byte received
+         assertThat(dispatcher.ranges).containsOnly("bytes=0-999", "bytes=1000-1999", "bytes=1500-1999",
+               "bytes=2000-2999", "bytes=3000-3999", "bytes=4000-4499");
+      } finally {
+         destination.delete();
+         context.close();
+         executor.shutdownNow();
+         executor.awaitTermination(10, TimeUnit.SECONDS);
+         server.shutdown();
+      }
+   }
+
+   public void testDownloadBlobDeletesCorruptDestination() throws Exception {
+      byte[] content = new byte[4500];
+      new Random().nextBytes(content);
+      byte[] served = content.clone();
+      served[3333] ^= 1;
+      MockWebServer server = new MockWebServer();
+      server.setDispatcher(new RangeDispatcher(content, served));
+      server.play();
+
+      Properties overrides = new Properties();
+      overrides.setProperty(B2Constants.PROPERTY_DOWNLOAD_RANGE_SIZE, "1000");
+      ExecutorService executor = Executors.newCachedThreadPool();
+      BlobStoreContext context = context(server, overrides, executor);
+      File destination = File.createTempFile("B2BlobStoreMockTest", ".bin");
+      try {
+         try {
+            context.getBlobStore().downloadBlob("kitten-videos", "large-file", destination);
+            failBecauseExceptionWasNotThrown(RuntimeException.class);
+         } catch (RuntimeException re) {
+            assertThat(Throwables.getRootCause(re)).hasMessageContaining("SHA-1");
+         }
+         assertThat(destination).doesNotExist();
+      } finally {
+         destination.delete();
+         context.close();
+         executor.shutdownNow();
+         executor.awaitTermination(10, TimeUnit.SECONDS);
+         server.shutdown();
+      }
+   }
+
+   public void testRemoveBlobDeletesTheLiveVersion() throws Exception {
+      byte[] content = "The quick brown fox jumped over the lazy dog.\n".getBytes(StandardCharsets.UTF_8);
+      String newerFileId = FILE_ID.replace("_t0028", "_t0029");
+      MockWebServer server = new MockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(fileHeaders(new MockResponse(), content)
+            .setHeader(HttpHeaders.CONTENT_LENGTH, content.length));
+      server.enqueue(new MockResponse().setBody(stringFromResource("/list_buckets_response.json")
+            .replace("Kitten Videos", "kitten-videos")));
+      // another client uploaded a newer version since the metadata call
+      server.enqueue(fileHeaders(new MockResponse(), content)
+            .setHeader(B2Headers.FILE_ID, newerFileId)
+            .setHeader(HttpHeaders.CONTENT_LENGTH, content.length));
+      server.enqueue(new MockResponse().setBody(stringFromResource("/delete_object_response.json")));
+      server.play();
+
+      ExecutorService executor = Executors.newCachedThreadPool();
+      BlobStoreContext context = context(server, new Properties(), executor);
+      try {
+         BlobStore blobStore = context.getBlobStore();
+         BlobMetadata metadata = blobStore.blobMetadata("kitten-videos", "large-file");
+         assertThat(metadata.getName()).isEqualTo("large-file");
+         assertThat(metadata.getSize()).isEqualTo(content.length);
+         assertThat(metadata.getETag()).isEqualTo(Hashing.sha1().hashBytes(content).toString());
+
+         blobStore.removeBlob("kitten-videos", "large-file");
+
+         assertThat(server.getRequestCount()).isEqualTo(5);
+         assertThat(server.takeRequest().getPath()).isEqualTo("/b2api/v1/b2_authorize_account");
+         RecordedRequest request = server.takeRequest();
+         assertThat(request.getMethod()).isEqualTo("HEAD");
+         assertThat(request.getPath()).isEqualTo("/file/kitten-videos/large-file");
+         assertThat(server.takeRequest().getPath()).isEqualTo("/b2api/v1/b2_list_buckets");
+         // the live version is looked up with a HEAD rather than by listing the bucket
+         request = server.takeRequest();
+         assertThat(request.getMethod()).isEqualTo("HEAD");
+         assertThat(request.getPath()).isEqualTo("/file/kitten-videos/large-file");
+         request = server.takeRequest();
+         assertThat(request.getPath()).isEqualTo("/b2api/v1/b2_delete_file_version");
+         assertThat(new String(request.getBody(), StandardCharsets.UTF_8)).contains(newerFileId);
+      } finally {
+         context.close();
+         executor.shutdownNow();
+         executor.awaitTermination(10, TimeUnit.SECONDS);
+         server.shutdown();
+      }
+   }
+
+   public void testUnverifiedSha1IsReportedWithoutItsPrefix() throws Exception {
+      byte[] content = "The quick brown fox jumped over the lazy dog.\n".getBytes(StandardCharsets.UTF_8);
+      String sha1 = Hashing.sha1().hashBytes(content).toString();
+      MockWebServer server = new MockWebServer();
+      server.play();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(new MockResponse().setBody(stringFromResource("/list_buckets_response.json")));
+      // no earlier version to replace
+      server.enqueue(new MockResponse().setResponseCode(404));
+      server.enqueue(new MockResponse().setBody(stringFromResource("/get_upload_url_response.json")
+            .replace("https://pod-000-1005-03.backblaze.com/", server.getUrl("/").toString())));
+      // files uploaded with the SHA-1 at the end report it with a prefix
+      server.enqueue(new MockResponse().setBody(stringFromResource("/upload_file_response.json")
+            .replace("bae5ed658ab3546aee12f23f36392f35dba1ebdd", "unverified:" + sha1)));
+      server.enqueue(fileHeaders(new MockResponse(), content)
+            .setHeader(B2Headers.CONTENT_SHA1, "unverified:" + sha1)
+            .setHeader(HttpHeaders.CONTENT_LENGTH, content.length));
+
+      ExecutorService executor = Executors.newCachedThreadPool();
+      BlobStoreContext context = context(server, new Properties(), executor);
+      try {
+         BlobStore blobStore = context.getBlobStore();
+         String eTag = blobStore.putBlob(CONTAINER, blobStore.blobBuilder("typing_test.txt").payload(content).build());
+         assertThat(eTag).isEqualTo(sha1);
+         assertThat(blobStore.blobMetadata("kitten-videos", "large-file").getETag()).isEqualTo(sha1);
+         assertThat(server.getRequestCount()).isEqualTo(6);
+      } finally {
+         context.close();
+         executor.shutdownNow();
+         executor.awaitTermination(10, TimeUnit.SECONDS);
+         server.shutdown();
+      }
+   }
+
+   /**
+    * Answers HEAD requests with the headers of {@code content} and serves byte ranges of {@code served} by file id,
+    * dropping the connection half way through the first attempt at the second range.
+    */
+   private static final class RangeDispatcher extends Dispatcher {
+      private final byte[] content;
+      private final byte[] served;
+      private final AtomicInteger inFlight = new AtomicInteger();
+      private final AtomicInteger maxInFlight = new AtomicInteger();
+      private final List<String> paths = new CopyOnWriteArrayList<String>();
+      private final List<String> ranges = new CopyOnWriteArrayList<String>();
+
+      RangeDispatcher(byte[] content, byte[] served) {
+         this.content = content;
+         this.served = served;
+      }
+
+      @Override
+      public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+         String path = request.getPath();
+         try {
+            if (path.equals("/b2api/v1/b2_authorize_account")) {
+               return new MockResponse().setBody(stringFromResource("/authorize_account_response.json"));
+            } else if (path.startsWith("/file/") && request.getMethod().equals("HEAD")) {
+               return fileHeaders(new MockResponse(), content)
+                     .setHeader(HttpHeaders.CONTENT_LENGTH, content.length);
+            } else if (path.startsWith("/b2api/v1/b2_download_file_by_id")) {
+               return downloadRange(request);
+            }
+         } catch (IOException ioe) {
+            throw new AssertionError(ioe);
+         }
+         return new MockResponse().setResponseCode(404);
+      }
+
+      private MockResponse downloadRange(RecordedRequest request) throws InterruptedException {
+         paths.add(request.getPath());
+         String range = request.getHeader("Range");
+         boolean firstAttempt = !ranges.contains(range);
+         ranges.add(range);
+         String[] bounds = range.substring("bytes=".length()).split("-");
+         int start = Integer.parseInt(bounds[0]);
+         int end = Integer.parseInt(bounds[1]);
+
+         int current = inFlight.incrementAndGet();
+         try {
+            while (true) {
+               int max = maxInFlight.get();
+               if (current <= max || maxInFlight.compareAndSet(max, current)) {
+                  break;
+               }
+            }
+            Thread.sleep(200);
+         } finally {
+            inFlight.decrementAndGet();
+         }
+
+         MockResponse response = fileHeaders(new MockResponse().setResponseCode(206), content)
+               .addHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+         if (start == 1000 && firstAttempt) {
+            return response.setBody(Arrays.copyOfRange(served, start, start + 500))
+                  .setHeader(HttpHeaders.CONTENT_LENGTH, end - start + 1)
+                  .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END);
+         }
+         return response.setBody(Arrays.copyOfRange(served, start, end + 1));
+      }
+   }
+
+   private static MockResponse fileHeaders(MockResponse response, byte[] content) {
+      return response
+            .addHeader(HttpHeaders.CONTENT_TYPE, "application/octet-stream")
+            .addHeader(B2Headers.FILE_ID, FILE_ID)
+            .addHeader(B2Headers.FILE_NAME, "large-file")
+            .addHeader(B2Headers.CONTENT_SHA1, Hashing.sha1().hashBytes(content).toString())
+            .addHeader(B2Headers.UPLOAD_TIMESTAMP, String.valueOf(1439083733000L));
+   }
+
+   private static BlobStoreContext context(MockWebServer server, Properties overrides, ExecutorService executor) {
+      return ContextBuilder.newBuilder("b2")
+            .credentials("ACCOUNT_ID", "APPLICATION_KEY")
+            .endpoint(server.getUrl("/").toString())
+            .overrides(overrides)
+            .modules(ImmutableSet.<Module> of(new ExecutorServiceModule(executor)))
+            .buildView(BlobStoreContext.class);
+   }
+
+   /** Reports sizes up front so slicing does not read through the random source. */
+   private static ByteSource knownSize(final ByteSource source, final long size) {
+      return new ByteSource() {
+         @Override
+         public InputStream openStream() throws IOException {
+            return source.openStream();
+         }
+
+         @Override
+         public long size() {
+            return size;
+         }
+
+         @Override
+         public ByteSource slice(long offset, long length) {
+            return knownSize(source.slice(offset, length), Math.min(length, Math.max(0, size - offset)));
+         }
+      };
+   }
+
+   private static String partSha1(int partNumber) {
+      return Hashing.sha1().hashInt(partNumber).toString();
+   }
+
+   private static String stringFromResource(String resourceName) throws IOException {
+      return Strings2.toStringAndClose(B2BlobStoreMockTest.class.getResourceAsStream(resourceName));
+   }
+}
@@ -24,7 +24,9 @@ import static org.jclouds.b2.features.B2TestUtils.assertRequest;
 import static org.jclouds.b2.features.B2TestUtils.createMockWebServer;
 import static org.jclouds.b2.features.B2TestUtils.stringFromResource;
 
+import java.io.ByteArrayInputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Map;
 
@@ -44,6 +46,7 @@ import org.jclouds.b2.reference.B2Headers;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.google.common.net.HttpHeaders;
 import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
@@ -131,6 +134,32 @@ public final class ObjectApiMockTest {
       }
    }
 
+   public void testUploadFileHexDigitsAtEnd() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/upload_file_response.json")));
+
+      try {
+         ObjectApi api = api(server.getUrl("/").toString(), "b2").getObjectApi();
+
+         UploadUrlResponse uploadUrl = UploadUrlResponse.create(BUCKET_ID, server.getUrl("/b2api/v1/b2_upload_file/4a48fe8875c6214145260818/c001_v0001007_t0042").toURI(), "FAKE-AUTHORIZATION-TOKEN");
+         byte[] bytes = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+         Payload payload = Payloads.newInputStreamPayload(new ByteArrayInputStream(bytes));
+         payload.getContentMetadata().setContentType(CONTENT_TYPE);
+         payload.getContentMetadata().setContentLength((long) bytes.length);
+         UploadFileResponse response = api.uploadFile(uploadUrl, FILE_NAME, B2Headers.HEX_DIGITS_AT_END, FILE_INFO, payload);
+         assertThat(response.fileId()).isEqualTo(FILE_ID);
+
+         assertThat(server.getRequestCount()).isEqualTo(1);
+         RecordedRequest request = server.takeRequest();
+         assertRequest(request, "POST", "/b2api/v1/b2_upload_file/4a48fe8875c6214145260818/c001_v0001007_t0042");
+         assertThat(request.getHeader(B2Headers.CONTENT_SHA1)).isEqualTo(B2Headers.HEX_DIGITS_AT_END);
+         assertThat(request.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo(String.valueOf(bytes.length + 40));
+         assertThat(new String(request.getBody(), StandardCharsets.UTF_8)).isEqualTo(PAYLOAD + Hashing.sha1().hashBytes(bytes));
+      } finally {
+         server.shutdown();
+      }
+   }
+
    public void testDeleteFileVersion() throws Exception {
       MockWebServer server = createMockWebServer();
       server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
@@ -331,6 +360,57 @@ public final class ObjectApiMockTest {
       }
    }
 
+   public void testGetFileInfoByName() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+
+      server.enqueue(new MockResponse()
+            .addHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE)
+            .addHeader(B2Headers.FILE_ID, FILE_ID)
+            .addHeader(B2Headers.FILE_NAME, FILE_NAME)
+            .addHeader(B2Headers.CONTENT_SHA1, SHA1)
+            .addHeader(B2Headers.UPLOAD_TIMESTAMP, String.valueOf(1500000000000L))
+            .addHeader(B2Headers.FILE_INFO_PREFIX + FILE_INFO.entrySet().iterator().next().getKey(), FILE_INFO.entrySet().iterator().next().getValue())
+            .setHeader(HttpHeaders.CONTENT_LENGTH, PAYLOAD.length()));
+
+      try {
+         ObjectApi api = api(server.getUrl("/").toString(), "b2").getObjectApi();
+
+         B2Object b2Object = api.getFileInfoByName(BUCKET_NAME, FILE_NAME);
+
+         assertThat(b2Object.fileId()).isEqualTo(FILE_ID);
+         assertThat(b2Object.fileName()).isEqualTo(FILE_NAME);
+         assertThat(b2Object.contentSha1()).isEqualTo(SHA1);
+         assertThat(b2Object.contentLength()).isEqualTo(PAYLOAD.length());
+         assertThat(b2Object.contentType()).isEqualTo(CONTENT_TYPE);
+         assertThat(b2Object.fileInfo()).isEqualTo(FILE_INFO);
+
+         assertThat(server.getRequestCount()).isEqualTo(2);
+         assertAuthentication(server);
+
+         RecordedRequest request = server.takeRequest();
+         assertThat(request.getMethod()).isEqualTo("HEAD");
+         assertThat(request.getPath()).isEqualTo("/file/BUCKET_NAME/typing_test.txt");
+      } finally {
+         server.shutdown();
+      }
+   }
+
+   public void testGetFileInfoByNameDeletedFile() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(new MockResponse().setResponseCode(404));
+
+      try {
+         ObjectApi api = api(server.getUrl("/").toString(), "b2").getObjectApi();
+         assertThat(api.getFileInfoByName(BUCKET_NAME, FILE_NAME)).isNull();
+
+         assertThat(server.getRequestCount()).isEqualTo(2);
+      } finally {
+         server.shutdown();
+      }
+   }
+
    public void testListFileNames() throws Exception {
       MockWebServer server = createMockWebServer();
       server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.b2.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.b2.B2Api;
+import org.jclouds.b2.domain.UploadFileResponse;
+import org.jclouds.b2.domain.UploadUrlResponse;
+import org.jclouds.concurrent.config.ExecutorServiceModule;
+import org.jclouds.io.Payloads;
+import org.jclouds.util.Strings2;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+@Test(groups = "unit", testName = "UploadUrlPoolMockTest")
+public final class UploadUrlPoolMockTest {
+   private static final String BUCKET_ID = "4a48fe8875c6214145260818";
+   private static final String FILE_NAME = "typing_test.txt";
+   private static final String SHA1 = "bae5ed658ab3546aee12f23f36392f35dba1ebdd";
+   private static final String PAYLOAD = "The quick brown fox jumped over the lazy dog.\n";
+
+   public void testLeaseReusesReleasedUrls() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-1"));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-2"));
+
+      try {
+         UploadUrlPool pool = injector(server).getInstance(UploadUrlPool.class);
+         UploadUrlResponse first = pool.leaseUploadUrl(BUCKET_ID);
+         UploadUrlResponse second = pool.leaseUploadUrl(BUCKET_ID);
+         assertThat(first.authorizationToken()).isEqualTo("TOKEN-1");
+         assertThat(second.authorizationToken()).isEqualTo("TOKEN-2");
+
+         // Released URLs are leased again without asking B2 for a new one
+         pool.releaseUploadUrl(second);
+         assertThat(pool.leaseUploadUrl(BUCKET_ID)).isEqualTo(second);
+         pool.releaseUploadUrl(first);
+         pool.releaseUploadUrl(second);
+         assertThat(ImmutableSet.of(pool.leaseUploadUrl(BUCKET_ID), pool.leaseUploadUrl(BUCKET_ID)))
+               .containsOnly(first, second);
+
+         assertThat(server.getRequestCount()).isEqualTo(3);
+      } finally {
+         server.shutdown();
+      }
+   }
+
+   public void testIdleUrlsExpireBeforeTheirToken() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-1"));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-2"));
+
+      try {
+         final AtomicLong nanos = new AtomicLong();
+         Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+               return nanos.get();
+            }
+         };
+         UploadUrlPool pool = new UploadUrlPool(injector(server).getInstance(B2Api.class), ticker);
+         UploadUrlResponse first = pool.leaseUploadUrl(BUCKET_ID);
+         pool.releaseUploadUrl(first);
+
+         nanos.set(TimeUnit.HOURS.toNanos(22));
+         assertThat(pool.leaseUploadUrl(BUCKET_ID)).isEqualTo(first);
+         pool.releaseUploadUrl(first);
+
+         // An idle URL fetched 23 hours ago is dropped rather than leased with a token about to expire
+         nanos.set(TimeUnit.HOURS.toNanos(23) + 1);
+         assertThat(pool.leaseUploadUrl(BUCKET_ID).authorizationToken()).isEqualTo("TOKEN-2");
+
+         assertThat(server.getRequestCount()).isEqualTo(3);
+      } finally {
+         server.shutdown();
+      }
+   }
+
+   public void testForgottenUrlsAreNotReleased() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-1"));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-2"));
+
+      try {
+         UploadUrlPool pool = injector(server).getInstance(UploadUrlPool.class);
+         UploadUrlResponse failed = pool.leaseUploadUrl(BUCKET_ID);
+         pool.forgetUploadUrl(failed);
+         pool.releaseUploadUrl(failed);
+
+         assertThat(pool.leaseUploadUrl(BUCKET_ID).authorizationToken()).isEqualTo("TOKEN-2");
+         assertThat(server.getRequestCount()).isEqualTo(3);
+      } finally {
+         server.shutdown();
+      }
+   }
+
+   public void testUploadRetriedWithNewUrl() throws Exception {
+      MockWebServer server = createMockWebServer();
+      server.enqueue(new MockResponse().setBody(stringFromResource("/authorize_account_response.json")));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-1"));
+      server.enqueue(new MockResponse().setResponseCode(503)
+            .setBody("{\"status\": 503, \"code\": \"service_unavailable\", \"message\": \"c001_v0001005_t0027 is too busy\"}"));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-2"));
+      server.enqueue(new MockResponse().setBody(stringFromResource("/upload_file_response.json")));
+      server.enqueue(uploadUrlResponse(server, "TOKEN-3"));
+
+      try {
+         Injector injector = injector(server);
+         B2Api api = injector.getInstance(B2Api.class);
+         UploadUrlPool pool = injector.getInstance(UploadUrlPool.class);
+
+         UploadUrlResponse uploadUrl = pool.leaseUploadUrl(BUCKET_ID);
+         UploadFileResponse response = api.getObjectApi().uploadFile(uploadUrl, FILE_NAME, SHA1,
+               ImmutableMap.<String, String>of(), Payloads.newStringPayload(PAYLOAD));
+         assertThat(response.contentSha1()).isEqualTo(SHA1);
+
+         // The refused URL is not leased again
+         pool.releaseUploadUrl(uploadUrl);
+         assertThat(pool.leaseUploadUrl(BUCKET_ID).authorizationToken()).isEqualTo("TOKEN-3");
+
+         assertThat(server.getRequestCount()).isEqualTo(6);
+         server.takeRequest();
+         server.takeRequest();
+         assertUpload(server.takeRequest(), "TOKEN-1");
+         server.takeRequest();
+         assertUpload(server.takeRequest(), "TOKEN-2");
+      } finally {
+         server.shutdown();
+      }
+   }
+
+   private static void assertUpload(RecordedRequest request, String authorizationToken) {
+      assertThat(request.getPath()).isEqualTo("/b2api/v1/b2_upload_file/" + BUCKET_ID + "/" + authorizationToken);
+      assertThat(request.getHeader(HttpHeaders.AUTHORIZATION)).isEqualTo(authorizationToken);
+   }
+
+   private static MockResponse uploadUrlResponse(MockWebServer server, String authorizationToken) {
+      return new MockResponse().setBody("{\"bucketId\": \"" + BUCKET_ID + "\", \"uploadUrl\": \""
+            + server.getUrl("/b2api/v1/b2_upload_file/" + BUCKET_ID + "/" + authorizationToken)
+            + "\", \"authorizationToken\": \"" + authorizationToken + "\"}");
+   }
+
+   private static Injector injector(MockWebServer server) {
+      return ContextBuilder.newBuilder("b2")
+            .credentials("ACCOUNT_ID", "APPLICATION_KEY")
+            .endpoint(server.getUrl("/").toString())
+            .modules(ImmutableSet.<Module> of(new ExecutorServiceModule(MoreExecutors.sameThreadExecutor())))
+            .buildInjector();
+   }
+
+   private static MockWebServer createMockWebServer() throws IOException {
+      MockWebServer server = new MockWebServer();
+      server.play();
+      return server;
+   }
+
+   private static String stringFromResource(String resourceName) throws IOException {
+      return Strings2.toStringAndClose(UploadUrlPoolMockTest.class.getResourceAsStream(resourceName));
+   }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.benchmark;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.Random;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.h2.jdbc.reference.H2JdbcConstants;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+/**
+ * An h2-jdbc blob store shared by the threads of a benchmark. Each trial starts from a new database holding a
+ * container of {@code population} blobs of {@code objectSize} bytes, spread over {@link #DIRECTORIES} directories,
+ * and an empty container for the blobs written by the benchmark, which is cleared before each iteration.
+ */
+@State(Scope.Benchmark)
+public class BlobStoreState {
+
+   public static final String POPULATED_CONTAINER = "populated";
+   public static final String WRITE_CONTAINER = "writes";
+   public static final int DIRECTORIES = 10;
+
+   /**
+    * Where the database is kept, {@code memory} or {@code file}.
+    */
+   @Param({ "memory", "file" })
+   public String database;
+
+   @Param({ "1024", "262144" })
+   public int objectSize;
+
+   @Param({ "1000" })
+   public int population;
+
+   /**
+    * Whether chunk content is stored in segment files instead of the database.
+    */
+   @Param({ "false" })
+   public boolean chunkFiles;
+
+   public BlobStore blobStore;
+   public ByteSource content;
+
+   private File directory;
+   private BlobStoreContext context;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      directory = Files.createTempDir();
+      Properties overrides = new Properties();
+      if ("memory".equals(database)) {
+         // The database lives as long as the connection pool keeps a connection to it
+         overrides.setProperty(H2JdbcConstants.PROPERTY_URL, "jdbc:h2:mem:" + directory.getName());
+      } else if ("file".equals(database)) {
+         overrides.setProperty(H2JdbcConstants.PROPERTY_URL, "jdbc:h2:" + new File(directory, "jclouds-db")
+               .getAbsolutePath());
+      } else {
+         throw new IllegalArgumentException("database must be memory or file, was " + database);
+      }
+      if (chunkFiles) {
+         overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_DIRECTORY, new File(directory, "chunks").getPath());
+      }
+      context = ContextBuilder.newBuilder("h2-jdbc").overrides(overrides).buildView(BlobStoreContext.class);
+      blobStore = context.getBlobStore();
+
+      byte[] bytes = new byte[objectSize];
+      new Random(0).nextBytes(bytes);
+      content = ByteSource.wrap(bytes);
+      blobStore.createContainerInLocation(null, POPULATED_CONTAINER);
+      blobStore.createContainerInLocation(null, WRITE_CONTAINER);
+      populate(POPULATED_CONTAINER);
+   }
+
+   @Setup(Level.Iteration)
+   public void clearWrites() {
+      blobStore.clearContainer(WRITE_CONTAINER);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      context.close();
+      deleteRecursively(directory);
+   }
+
+   /**
+    * Puts {@code population} blobs in a container.
+    */
+   public void populate(String container) {
+      for (int i = 0; i < population; i++) {
+         blobStore.putBlob(container, blobStore.blobBuilder(key(i)).payload(content).contentLength(objectSize)
+               .build());
+      }
+   }
+
+   /**
+    * Gets the key of one of the blobs of the populated container.
+    */
+   public String randomKey(Random random) {
+      return key(random.nextInt(population));
+   }
+
+   /**
+    * Gets one of the directories of the populated container.
+    */
+   public static String randomDirectory(Random random) {
+      return "dir-" + random.nextInt(DIRECTORIES);
+   }
+
+   private static String key(int index) {
+      return "dir-" + index % DIRECTORIES + "/blob-" + index;
+   }
+
+   private static void deleteRecursively(File file) {
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) {
+            deleteRecursively(child);
+         }
+      }
+      file.delete();
+   }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.benchmark;
+
+import static org.jclouds.blobstore.options.GetOptions.Builder.range;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.inDirectory;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.prefix;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.recursive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Measures the blob store operations of the h2-jdbc provider, alone and as a concurrent mixed workload. Run the
+ * shaded jar of this module, for instance {@code java -jar target/benchmarks.jar -p objectSize=1048576}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JdbcBlobStoreBenchmark {
+
+   @Benchmark
+   public String putBlob(BlobStoreState state, ThreadState thread) {
+      return put(state, thread);
+   }
+
+   @Benchmark
+   public long getBlob(BlobStoreState state, ThreadState thread) throws IOException {
+      return read(state.blobStore.getBlob(BlobStoreState.POPULATED_CONTAINER, state.randomKey(thread.random)));
+   }
+
+   /**
+    * Reads the middle half of a blob.
+    */
+   @Benchmark
+   public long getBlobRange(BlobStoreState state, ThreadState thread) throws IOException {
+      return read(state.blobStore.getBlob(BlobStoreState.POPULATED_CONTAINER, state.randomKey(thread.random),
+            range(state.objectSize / 4, state.objectSize / 4 + state.objectSize / 2 - 1)));
+   }
+
+   @Benchmark
+   public PageSet<? extends StorageMetadata> list(BlobStoreState state) {
+      return state.blobStore.list(BlobStoreState.POPULATED_CONTAINER, recursive());
+   }
+
+   @Benchmark
+   public PageSet<? extends StorageMetadata> listDirectory(BlobStoreState state, ThreadState thread) {
+      return state.blobStore.list(BlobStoreState.POPULATED_CONTAINER,
+            inDirectory(BlobStoreState.randomDirectory(thread.random)));
+   }
+
+   @Benchmark
+   public PageSet<? extends StorageMetadata> listPrefix(BlobStoreState state, ThreadState thread) {
+      return state.blobStore.list(BlobStoreState.POPULATED_CONTAINER,
+            prefix(BlobStoreState.randomDirectory(thread.random) + "/blob-1").recursive());
+   }
+
+   @Benchmark
+   public long countBlobs(BlobStoreState state) {
+      return state.blobStore.countBlobs(BlobStoreState.POPULATED_CONTAINER);
+   }
+
+   /**
+    * Clears a container of {@code population} blobs, filled again before each invocation.
+    */
+   @Benchmark
+   @BenchmarkMode(Mode.SingleShotTime)
+   @OutputTimeUnit(TimeUnit.MILLISECONDS)
+   @Measurement(iterations = 5, batchSize = 1)
+   public void clearContainer(ClearState clear, BlobStoreState state) {
+      state.blobStore.clearContainer(ClearState.CONTAINER);
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(4)
+   public long mixedGetBlob(BlobStoreState state, ThreadState thread) throws IOException {
+      return getBlob(state, thread);
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(2)
+   public String mixedPutBlob(BlobStoreState state, ThreadState thread) {
+      return put(state, thread);
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(1)
+   public PageSet<? extends StorageMetadata> mixedListDirectory(BlobStoreState state, ThreadState thread) {
+      return listDirectory(state, thread);
+   }
+
+   @State(Scope.Benchmark)
+   public static class ClearState {
+
+      static final String CONTAINER = "cleared";
+
+      @Setup(Level.Invocation)
+      public void fill(BlobStoreState state) {
+         state.blobStore.createContainerInLocation(null, CONTAINER);
+         state.populate(CONTAINER);
+      }
+
+   }
+
+   private static String put(BlobStoreState state, ThreadState thread) {
+      return state.blobStore.putBlob(BlobStoreState.WRITE_CONTAINER, state.blobStore.blobBuilder(thread.nextName())
+            .payload(state.content).contentLength(state.objectSize).build());
+   }
+
+   private static long read(Blob blob) throws IOException {
+      InputStream in = blob.getPayload().openStream();
+      try {
+         return ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      } finally {
+         in.close();
+      }
+   }
+
+}
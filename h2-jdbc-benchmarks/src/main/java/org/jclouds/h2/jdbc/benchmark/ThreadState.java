@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The random source and written blob names of a benchmark thread.
+ */
+@State(Scope.Thread)
+public class ThreadState {
+
+   private static final AtomicInteger THREADS = new AtomicInteger();
+
+   public final Random random;
+   private final int thread = THREADS.getAndIncrement();
+   private long writes;
+
+   public ThreadState() {
+      random = new Random(thread);
+   }
+
+   /**
+    * Gets a blob name no other thread writes to.
+    */
+   public String nextName() {
+      return "thread-" + thread + "/blob-" + writes++;
+   }
+
+}
@@ -16,7 +16,10 @@
  */
 package org.jclouds.h2.jdbc;
 
+import java.util.Properties;
+
 import org.jclouds.h2.jdbc.config.H2JdbcBlobStoreContextModule;
+import org.jclouds.h2.jdbc.reference.H2JdbcConstants;
 import org.jclouds.jdbc.JdbcApiMetadata;
 import org.jclouds.providers.ProviderMetadata;
 import org.jclouds.providers.internal.BaseProviderMetadata;
@@ -35,6 +38,12 @@ public class H2JdbcProviderMetadata extends BaseProviderMetadata {
       return builder().fromProviderMetadata(this);
    }
 
+   public static Properties defaultProperties() {
+      Properties properties = JdbcApiMetadata.defaultProperties();
+      properties.setProperty(H2JdbcConstants.PROPERTY_URL, H2JdbcConstants.DEFAULT_URL);
+      return properties;
+   }
+
    public H2JdbcProviderMetadata() {
       super(builder());
    }
@@ -50,7 +59,8 @@ public class H2JdbcProviderMetadata extends BaseProviderMetadata {
                .apiMetadata(new JdbcApiMetadata()
                      .toBuilder()
                      .defaultModule(H2JdbcBlobStoreContextModule.class)
-                     .build());
+                     .build())
+               .defaultProperties(H2JdbcProviderMetadata.defaultProperties());
       }
 
       @Override
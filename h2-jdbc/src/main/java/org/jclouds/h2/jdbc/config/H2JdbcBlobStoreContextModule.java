@@ -16,23 +16,45 @@
  */
 package org.jclouds.h2.jdbc.config;
 
-import java.util.Properties;
+import java.io.Closeable;
 
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jclouds.h2.jdbc.reference.H2JdbcConstants;
 import org.jclouds.jdbc.config.JdbcBlobStoreContextModule;
+import org.jclouds.jdbc.config.JdbcPersistenceModule;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.lifecycle.Closer;
 
-import com.google.inject.persist.jpa.JpaPersistModule;
+import com.google.inject.Provides;
 
 public class H2JdbcBlobStoreContextModule extends JdbcBlobStoreContextModule {
 
-   private static final String DEFAULT_FILE = "./jclouds-db";
-
    protected void configure() {
       super.configure();
 
-      Properties properties = new Properties();
-      properties.setProperty("hibernate.connection.url", "jdbc:h2:" + DEFAULT_FILE);
+      install(new JdbcPersistenceModule("jclouds-h2"));
+   }
 
-      install(new JpaPersistModule("jclouds-h2").properties(properties));
+   @Provides
+   @Singleton
+   DataSource provideDataSource(@Named(H2JdbcConstants.PROPERTY_URL) String url,
+         @Named(JdbcConstants.PROPERTY_POOL_SIZE) int poolSize,
+         @Named(JdbcConstants.PROPERTY_STATEMENT_CACHE_SIZE) int statementCacheSize, Closer closer) {
+      // H2 caches the prepared statements of each session itself
+      final JdbcConnectionPool pool = JdbcConnectionPool.create(
+            url + ";QUERY_CACHE_SIZE=" + statementCacheSize, "sa", "");
+      pool.setMaxConnections(poolSize);
+      closer.addToClose(new Closeable() {
+         @Override
+         public void close() {
+            pool.dispose();
+         }
+      });
+      return pool;
    }
 
 }
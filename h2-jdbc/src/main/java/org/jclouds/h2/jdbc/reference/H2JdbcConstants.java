@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.reference;
+
+/**
+ * Common constants used in h2 jdbc provider
+ */
+public final class H2JdbcConstants {
+
+   /**
+    * JDBC URL of the H2 database, such as {@code jdbc:h2:mem:name;DB_CLOSE_DELAY=-1} for an in-memory database
+    */
+   public static final String PROPERTY_URL = "jclouds.h2.url";
+
+   public static final String DEFAULT_URL = "jdbc:h2:./jclouds-db";
+
+   private H2JdbcConstants() {
+      throw new AssertionError("Intentionally Unimplemented");
+   }
+}
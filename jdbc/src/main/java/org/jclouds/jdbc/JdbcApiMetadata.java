@@ -23,8 +23,10 @@ import org.jclouds.apis.ApiMetadata;
 import org.jclouds.apis.internal.BaseApiMetadata;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.jdbc.config.JdbcBlobStoreContextModule;
+import org.jclouds.jdbc.reference.JdbcConstants;
 
 import java.net.URI;
+import java.util.Properties;
 
 /**
  * Implementation of {@link ApiMetadata} for jclouds Jdbc BlobStore
@@ -45,6 +47,32 @@ public class JdbcApiMetadata extends BaseApiMetadata {
       super(builder);
    }
 
+   public static Properties defaultProperties() {
+      Properties properties = BaseApiMetadata.defaultProperties();
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_SIZE, String.valueOf(JdbcConstants.DEFAULT_CHUNK_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_INLINE_THRESHOLD, String.valueOf(JdbcConstants.DEFAULT_INLINE_THRESHOLD));
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_PREFETCH, String.valueOf(JdbcConstants.DEFAULT_CHUNK_PREFETCH));
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_BATCH_SIZE, String.valueOf(JdbcConstants.DEFAULT_CHUNK_BATCH_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_FLUSH_INTERVAL,
+            String.valueOf(JdbcConstants.DEFAULT_CHUNK_FLUSH_INTERVAL));
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_DEDUP, String.valueOf(JdbcConstants.DEFAULT_CHUNK_DEDUP));
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_STREAMING, String.valueOf(JdbcConstants.DEFAULT_CHUNK_STREAMING));
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_DIRECTORY, JdbcConstants.DEFAULT_CHUNK_DIRECTORY);
+      properties.setProperty(JdbcConstants.PROPERTY_CHUNK_SEGMENT_SIZE, String.valueOf(JdbcConstants.DEFAULT_CHUNK_SEGMENT_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_DELETE_BATCH_SIZE, String.valueOf(JdbcConstants.DEFAULT_DELETE_BATCH_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_POOL_SIZE, String.valueOf(JdbcConstants.DEFAULT_POOL_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_DB_THREADS, String.valueOf(JdbcConstants.DEFAULT_DB_THREADS));
+      properties.setProperty(JdbcConstants.PROPERTY_DB_QUEUE_SIZE, String.valueOf(JdbcConstants.DEFAULT_DB_QUEUE_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_DB_QUEUE_POLICY, JdbcConstants.DEFAULT_DB_QUEUE_POLICY);
+      properties.setProperty(JdbcConstants.PROPERTY_STATEMENT_CACHE_SIZE, String.valueOf(JdbcConstants.DEFAULT_STATEMENT_CACHE_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_JDBC_BATCH_SIZE, String.valueOf(JdbcConstants.DEFAULT_JDBC_BATCH_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_FETCH_SIZE, String.valueOf(JdbcConstants.DEFAULT_FETCH_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_SHARED_CACHE, String.valueOf(JdbcConstants.DEFAULT_SHARED_CACHE));
+      properties.setProperty(JdbcConstants.PROPERTY_METADATA_CACHE_SIZE, String.valueOf(JdbcConstants.DEFAULT_METADATA_CACHE_SIZE));
+      properties.setProperty(JdbcConstants.PROPERTY_METADATA_CACHE_EXPIRY, String.valueOf(JdbcConstants.DEFAULT_METADATA_CACHE_EXPIRY));
+      return properties;
+   }
+
    public static class Builder extends BaseApiMetadata.Builder<Builder> {
 
       protected Builder() {
@@ -57,6 +85,7 @@ public class JdbcApiMetadata extends BaseApiMetadata {
          .defaultCredential("unused")
          .version("1")
          .documentation(URI.create("http://www.jclouds.org/documentation/userguide/blobstore-guide"))
+         .defaultProperties(JdbcApiMetadata.defaultProperties())
          .view(BlobStoreContext.class)
          .defaultModules(ImmutableSet.<Class<? extends Module>>of(JdbcBlobStoreContextModule.class));
       }
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.blobstore;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.domain.Location;
+import org.jclouds.jdbc.reference.JdbcConstants;
+
+import javax.inject.Named;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs the operations of the JDBC blob store on a dedicated executor with no more threads than the connection
+ * pool, so that callers hand off database work instead of blocking on it. Many small operations, such as reading
+ * the metadata of several blobs, can then run concurrently from a single caller thread.
+ * <p>
+ * The content of a blob returned by {@link #getBlob} is read from the database when its payload is opened, on the
+ * thread reading it.
+ */
+@Singleton
+public class JdbcAsyncBlobStore {
+
+   private final BlobStore blobStore;
+   private final ListeningExecutorService executor;
+
+   @Inject
+   JdbcAsyncBlobStore(BlobStore blobStore,
+         @Named(JdbcConstants.PROPERTY_DB_THREADS) ListeningExecutorService executor) {
+      this.blobStore = blobStore;
+      this.executor = executor;
+   }
+
+   /**
+    * Gets the blob store the operations are delegated to.
+    */
+   public BlobStore getBlobStore() {
+      return blobStore;
+   }
+
+   public ListenableFuture<Boolean> containerExists(final String container) {
+      return executor.submit(new Callable<Boolean>() {
+         @Override
+         public Boolean call() {
+            return blobStore.containerExists(container);
+         }
+      });
+   }
+
+   public ListenableFuture<Boolean> createContainerInLocation(final Location location, final String container) {
+      return executor.submit(new Callable<Boolean>() {
+         @Override
+         public Boolean call() {
+            return blobStore.createContainerInLocation(location, container);
+         }
+      });
+   }
+
+   public ListenableFuture<Void> deleteContainer(final String container) {
+      return executor.submit(new Callable<Void>() {
+         @Override
+         public Void call() {
+            blobStore.deleteContainer(container);
+            return null;
+         }
+      });
+   }
+
+   public ListenableFuture<PageSet<? extends StorageMetadata>> list(final String container,
+         final ListContainerOptions options) {
+      return executor.submit(new Callable<PageSet<? extends StorageMetadata>>() {
+         @Override
+         public PageSet<? extends StorageMetadata> call() {
+            return blobStore.list(container, options);
+         }
+      });
+   }
+
+   public ListenableFuture<Long> countBlobs(final String container, final ListContainerOptions options) {
+      return executor.submit(new Callable<Long>() {
+         @Override
+         public Long call() {
+            return blobStore.countBlobs(container, options);
+         }
+      });
+   }
+
+   public ListenableFuture<Boolean> blobExists(final String container, final String name) {
+      return executor.submit(new Callable<Boolean>() {
+         @Override
+         public Boolean call() {
+            return blobStore.blobExists(container, name);
+         }
+      });
+   }
+
+   public ListenableFuture<BlobMetadata> blobMetadata(final String container, final String name) {
+      return executor.submit(new Callable<BlobMetadata>() {
+         @Override
+         public BlobMetadata call() {
+            return blobStore.blobMetadata(container, name);
+         }
+      });
+   }
+
+   /**
+    * Gets the metadata of several blobs concurrently.
+    *
+    * @return the metadata of the blobs in the order of their names, null for the blobs that do not exist
+    */
+   public ListenableFuture<List<BlobMetadata>> blobMetadata(String container, Iterable<String> names) {
+      List<ListenableFuture<BlobMetadata>> futures = Lists.newArrayList();
+      for (String name : names) {
+         futures.add(blobMetadata(container, name));
+      }
+      return Futures.allAsList(futures);
+   }
+
+   public ListenableFuture<Blob> getBlob(final String container, final String name, final GetOptions options) {
+      return executor.submit(new Callable<Blob>() {
+         @Override
+         public Blob call() {
+            return blobStore.getBlob(container, name, options);
+         }
+      });
+   }
+
+   public ListenableFuture<Blob> getBlob(String container, String name) {
+      return getBlob(container, name, GetOptions.NONE);
+   }
+
+   public ListenableFuture<String> putBlob(final String container, final Blob blob, final PutOptions options) {
+      return executor.submit(new Callable<String>() {
+         @Override
+         public String call() {
+            return blobStore.putBlob(container, blob, options);
+         }
+      });
+   }
+
+   public ListenableFuture<String> putBlob(String container, Blob blob) {
+      return putBlob(container, blob, PutOptions.NONE);
+   }
+
+   public ListenableFuture<String> copyBlob(final String fromContainer, final String fromName,
+         final String toContainer, final String toName, final CopyOptions options) {
+      return executor.submit(new Callable<String>() {
+         @Override
+         public String call() {
+            return blobStore.copyBlob(fromContainer, fromName, toContainer, toName, options);
+         }
+      });
+   }
+
+   public ListenableFuture<Void> removeBlob(final String container, final String name) {
+      return executor.submit(new Callable<Void>() {
+         @Override
+         public Void call() {
+            blobStore.removeBlob(container, name);
+            return null;
+         }
+      });
+   }
+
+   public ListenableFuture<Void> removeBlobs(final String container, final Iterable<String> names) {
+      return executor.submit(new Callable<Void>() {
+         @Override
+         public Void call() {
+            blobStore.removeBlobs(container, names);
+            return null;
+         }
+      });
+   }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.blobstore;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.jclouds.blobstore.ContainerNotFoundException;
+import org.jclouds.blobstore.KeyNotFoundException;
+import org.jclouds.blobstore.config.LocalBlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.util.BlobStoreUtils;
+import org.jclouds.blobstore.util.ForwardingBlobStore;
+import org.jclouds.http.HttpCommand;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.http.HttpUtils;
+import org.jclouds.io.Payload;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.strategy.JdbcStorageStrategy;
+
+import javax.inject.Named;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Blob store backed by the local blob store, except for the operations the database can answer without
+ * loading every blob of a container or streaming blob content.
+ */
+@Singleton
+public class JdbcBlobStore extends ForwardingBlobStore {
+
+   // Parts are stored as hidden blobs named like the ones of the local blob store, which lists and aborts uploads
+   private static final String MULTIPART_PREFIX = ".mpus-";
+
+   private final JdbcStorageStrategy storageStrategy;
+   private final int chunkSize;
+
+   @Inject
+   JdbcBlobStore(LocalBlobStore localBlobStore, JdbcStorageStrategy storageStrategy,
+         @Named(JdbcConstants.PROPERTY_CHUNK_SIZE) int chunkSize) {
+      super(localBlobStore);
+      this.storageStrategy = storageStrategy;
+      this.chunkSize = chunkSize;
+   }
+
+   @Override
+   public String copyBlob(String fromContainer, String fromName, String toContainer, String toName,
+         CopyOptions options) {
+      if (!storageStrategy.containerExists(fromContainer)) {
+         throw new ContainerNotFoundException(fromContainer, "while copying");
+      }
+      if (options.ifMatch() != null || options.ifNoneMatch() != null || options.ifModifiedSince() != null
+            || options.ifUnmodifiedSince() != null) {
+         Blob blob = storageStrategy.getBlob(fromContainer, fromName);
+         if (blob == null) {
+            throw new KeyNotFoundException(fromContainer, fromName, "while copying");
+         }
+         checkCopyConditions(blob.getMetadata(), options);
+      }
+      if (!storageStrategy.containerExists(toContainer)) {
+         throw new ContainerNotFoundException(toContainer, "while copying");
+      }
+      String eTag = storageStrategy.copyBlob(fromContainer, fromName, toContainer, toName, options);
+      if (eTag == null) {
+         throw new KeyNotFoundException(fromContainer, fromName, "while copying");
+      }
+      return eTag;
+   }
+
+   @Override
+   public BlobMetadata blobMetadata(String container, String name) {
+      if (!storageStrategy.containerExists(container)) {
+         throw new ContainerNotFoundException(container, String.format("container %s not in %s", container,
+               storageStrategy.getAllContainerNames()));
+      }
+      MutableBlobMetadata metadata = storageStrategy.blobMetadata(container, name);
+      return metadata == null ? null : BlobStoreUtils.copy(metadata);
+   }
+
+   @Override
+   public MultipartPart uploadMultipartPart(MultipartUpload mpu, int partNumber, Payload payload) {
+      if (!storageStrategy.containerExists(mpu.containerName())) {
+         throw new ContainerNotFoundException(mpu.containerName(), "while uploading part");
+      }
+      Blob blob = blobBuilder(partName(mpu, Integer.toString(partNumber))).payload(payload).build();
+      try {
+         return storageStrategy.putMultipartPart(mpu.containerName(), partNumber, blob);
+      } catch (IOException ioe) {
+         throw Throwables.propagate(ioe);
+      }
+   }
+
+   @Override
+   public List<MultipartPart> listMultipartUpload(MultipartUpload mpu) {
+      String prefix = partName(mpu, "");
+      ImmutableList.Builder<MultipartPart> parts = ImmutableList.builder();
+      ListContainerOptions options = new ListContainerOptions().prefix(prefix).recursive();
+      while (true) {
+         PageSet<? extends StorageMetadata> pageSet = list(mpu.containerName(), options);
+         for (StorageMetadata metadata : pageSet) {
+            if (metadata.getName().endsWith("-stub")) {
+               continue;
+            }
+            int partNumber = Integer.parseInt(metadata.getName().substring(prefix.length()));
+            parts.add(MultipartPart.create(partNumber, metadata.getSize() == null ? -1 : metadata.getSize(),
+                  metadata.getETag()));
+         }
+         if (pageSet.isEmpty() || pageSet.getNextMarker() == null) {
+            return parts.build();
+         }
+         options.afterMarker(pageSet.getNextMarker());
+      }
+   }
+
+   @Override
+   public String completeMultipartUpload(MultipartUpload mpu, List<MultipartPart> parts) {
+      List<String> partNames = Lists.newArrayListWithCapacity(parts.size());
+      for (MultipartPart part : parts) {
+         partNames.add(partName(mpu, Integer.toString(part.partNumber())));
+      }
+      Blob blob = blobBuilder(mpu.blobName())
+            .userMetadata(mpu.blobMetadata().getUserMetadata())
+            .payload(new byte[0])
+            .build();
+      HttpUtils.copy(mpu.blobMetadata().getContentMetadata(), blob.getPayload().getContentMetadata());
+      String eTag = storageStrategy.completeMultipartUpload(mpu.containerName(), blob, partNames);
+      if (eTag == null) {
+         // Parts uploaded with another chunk size or not filling whole chunks are concatenated by copying them
+         return super.completeMultipartUpload(mpu, parts);
+      }
+      storageStrategy.removeBlob(mpu.containerName(), partName(mpu, "stub"));
+      setBlobAccess(mpu.containerName(), mpu.blobName(), mpu.putOptions().getBlobAccess());
+      return eTag;
+   }
+
+   /**
+    * Gets the default chunk size, the smallest part size filling whole chunks in containers that do not set their
+    * own chunk size. See {@link #getMinimumMultipartPartSize(String)} for the others.
+    */
+   @Override
+   public long getMinimumMultipartPartSize() {
+      return chunkSize;
+   }
+
+   @Override
+   public long getMaximumMultipartPartSize() {
+      return maximumPartSize(chunkSize);
+   }
+
+   /**
+    * Gets the chunk size of a container, the smallest part size filling whole chunks in it, so that completing a
+    * multipart upload to the container concatenates the chunks of its parts instead of copying them.
+    */
+   public long getMinimumMultipartPartSize(String container) {
+      return containerChunkSize(container);
+   }
+
+   /**
+    * Gets the largest part size filling whole chunks in a container.
+    */
+   public long getMaximumMultipartPartSize(String container) {
+      return maximumPartSize(containerChunkSize(container));
+   }
+
+   @Override
+   public PageSet<? extends StorageMetadata> list(String container) {
+      return list(container, ListContainerOptions.NONE);
+   }
+
+   @Override
+   public PageSet<? extends StorageMetadata> list(String container, ListContainerOptions options) {
+      if (options.getDir() != null && options.getPrefix() != null) {
+         throw new IllegalArgumentException("Cannot set both prefix and directory");
+      }
+      if ((options.getDir() != null || options.isRecursive()) && options.getDelimiter() != null) {
+         throw new IllegalArgumentException("Cannot set the delimiter if directory or recursive is set");
+      }
+      if (!storageStrategy.containerExists(container)) {
+         throw new ContainerNotFoundException(container, String.format("container %s not in %s", container,
+               storageStrategy.getAllContainerNames()));
+      }
+      return storageStrategy.list(container, options);
+   }
+
+   private int containerChunkSize(String container) {
+      Integer containerChunkSize = storageStrategy.getContainerChunkSize(container);
+      if (containerChunkSize == null) {
+         throw new ContainerNotFoundException(container, "while getting the multipart part size");
+      }
+      return containerChunkSize;
+   }
+
+   private static long maximumPartSize(long minimumPartSize) {
+      return JdbcConstants.MAX_MULTIPART_PART_SIZE / minimumPartSize * minimumPartSize;
+   }
+
+   private static String partName(MultipartUpload mpu, String suffix) {
+      return MULTIPART_PREFIX + mpu.id() + "-" + mpu.blobName() + "-" + suffix;
+   }
+
+   private static void checkCopyConditions(BlobMetadata metadata, CopyOptions options) {
+      String eTag = metadata.getETag();
+      if (eTag != null) {
+         eTag = maybeQuoteETag(eTag);
+         if (options.ifMatch() != null && !maybeQuoteETag(options.ifMatch()).equals(eTag)) {
+            throw returnResponseException(412);
+         }
+         if (options.ifNoneMatch() != null && maybeQuoteETag(options.ifNoneMatch()).equals(eTag)) {
+            throw returnResponseException(412);
+         }
+      }
+      Date lastModified = metadata.getLastModified();
+      if (lastModified != null) {
+         if (options.ifModifiedSince() != null && lastModified.compareTo(options.ifModifiedSince()) <= 0) {
+            throw returnResponseException(412);
+         }
+         if (options.ifUnmodifiedSince() != null && lastModified.compareTo(options.ifUnmodifiedSince()) >= 0) {
+            throw returnResponseException(412);
+         }
+      }
+   }
+
+   private static String maybeQuoteETag(String eTag) {
+      if (!eTag.startsWith("\"") && !eTag.endsWith("\"")) {
+         eTag = "\"" + eTag + "\"";
+      }
+      return eTag;
+   }
+
+   private static HttpResponseException returnResponseException(int code) {
+      HttpResponse response = HttpResponse.builder().statusCode(code).build();
+      return new HttpResponseException(new HttpCommand(HttpRequest.builder().method("GET")
+            .endpoint("http://stub").build()), response);
+   }
+
+}
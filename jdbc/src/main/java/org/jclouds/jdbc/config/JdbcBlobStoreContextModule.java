@@ -16,24 +16,40 @@
  */
 package org.jclouds.jdbc.config;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
 import org.jclouds.blobstore.BlobRequestSigner;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.LocalBlobRequestSigner;
 import org.jclouds.blobstore.LocalStorageStrategy;
 import org.jclouds.blobstore.attr.ConsistencyModel;
 import org.jclouds.blobstore.config.BlobStoreObjectModule;
-import org.jclouds.blobstore.config.LocalBlobStore;
 import org.jclouds.blobstore.util.BlobUtils;
+import org.jclouds.jdbc.blobstore.JdbcBlobStore;
+import org.jclouds.jdbc.reference.JdbcConstants;
 import org.jclouds.jdbc.strategy.JdbcStorageStrategy;
 import org.jclouds.jdbc.util.JdbcBlobUtils;
+import org.jclouds.lifecycle.Closer;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 public class JdbcBlobStoreContextModule extends AbstractModule {
 
    @Override
    protected void configure() {
       bind(JPAInitializer.class).asEagerSingleton();
-      bind(BlobStore.class).to(LocalBlobStore.class);
+      bind(BlobStore.class).to(JdbcBlobStore.class);
       install(new BlobStoreObjectModule());
       bind(ConsistencyModel.class).toInstance(ConsistencyModel.STRICT);
       bind(LocalStorageStrategy.class).to(JdbcStorageStrategy.class);
@@ -41,4 +57,39 @@ public class JdbcBlobStoreContextModule extends AbstractModule {
       bind(BlobRequestSigner.class).to(LocalBlobRequestSigner.class);
    }
 
+   /**
+    * Provides the executor of the asynchronous blob store. It has no more threads than the pool has connections,
+    * so that queued operations wait for a thread instead of holding one while they wait for a connection. Its queue
+    * is bounded, operations submitted while it is full run on the calling thread or are rejected.
+    */
+   @Provides
+   @Singleton
+   @Named(JdbcConstants.PROPERTY_DB_THREADS)
+   ListeningExecutorService provideDatabaseExecutor(@Named(JdbcConstants.PROPERTY_DB_THREADS) int threads,
+         @Named(JdbcConstants.PROPERTY_POOL_SIZE) int poolSize,
+         @Named(JdbcConstants.PROPERTY_DB_QUEUE_SIZE) int queueSize,
+         @Named(JdbcConstants.PROPERTY_DB_QUEUE_POLICY) String queuePolicy, Closer closer) {
+      int poolThreads = Math.max(1, threads > 0 ? threads : poolSize);
+      final ListeningExecutorService executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(poolThreads,
+            poolThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+            new ThreadFactoryBuilder().setNameFormat("jdbc thread %d").setDaemon(true).build(),
+            rejectedExecutionHandler(queuePolicy)));
+      closer.addToClose(new Closeable() {
+         @Override
+         public void close() {
+            executor.shutdownNow();
+         }
+      });
+      return executor;
+   }
+
+   private static RejectedExecutionHandler rejectedExecutionHandler(String queuePolicy) {
+      if (JdbcConstants.DB_QUEUE_CALLER_RUNS.equals(queuePolicy)) {
+         return new ThreadPoolExecutor.CallerRunsPolicy();
+      }
+      checkArgument(JdbcConstants.DB_QUEUE_ABORT.equals(queuePolicy), "database queue policy must be %s or %s, was %s",
+            JdbcConstants.DB_QUEUE_CALLER_RUNS, JdbcConstants.DB_QUEUE_ABORT, queuePolicy);
+      return new ThreadPoolExecutor.AbortPolicy();
+   }
+
 }
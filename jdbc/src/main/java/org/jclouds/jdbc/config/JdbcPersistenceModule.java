@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.config;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.persist.jpa.JpaPersistModule;
+import org.jclouds.jdbc.reference.JdbcConstants;
+
+import javax.inject.Named;
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Installs a {@link JpaPersistModule} whose persistence unit is tuned from the jclouds properties of the context:
+ * connection pool, statement cache, JDBC batching, fetch size and shared cache. The keys of both Hibernate and
+ * EclipseLink are set, each provider ignores the keys of the other one. Properties given to the module take
+ * precedence, and a {@link DataSource} bound in the injector is used instead of the connections of the provider.
+ */
+public class JdbcPersistenceModule extends AbstractModule {
+
+   private final String persistenceUnitName;
+   private final Properties properties;
+
+   public JdbcPersistenceModule(String persistenceUnitName) {
+      this(persistenceUnitName, new Properties());
+   }
+
+   public JdbcPersistenceModule(String persistenceUnitName, Properties properties) {
+      this.persistenceUnitName = persistenceUnitName;
+      this.properties = properties;
+   }
+
+   @Override
+   protected void configure() {
+      Properties persistenceProperties = new Properties();
+      persistenceProperties.putAll(properties);
+      install(new JpaPersistModule(persistenceUnitName).properties(persistenceProperties));
+      // Requested injections are done before eager singletons are created, so before JPAInitializer starts the
+      // persistence service and reads the properties
+      requestInjection(new PersistenceProperties(persistenceProperties));
+   }
+
+   private static class PersistenceProperties {
+
+      private final Map<Object, Object> properties;
+
+      PersistenceProperties(Map<Object, Object> properties) {
+         this.properties = properties;
+      }
+
+      @Inject
+      void tune(@Named(JdbcConstants.PROPERTY_POOL_SIZE) int poolSize,
+            @Named(JdbcConstants.PROPERTY_STATEMENT_CACHE_SIZE) int statementCacheSize,
+            @Named(JdbcConstants.PROPERTY_JDBC_BATCH_SIZE) int batchSize,
+            @Named(JdbcConstants.PROPERTY_FETCH_SIZE) int fetchSize,
+            @Named(JdbcConstants.PROPERTY_SHARED_CACHE) boolean sharedCache) {
+         setDefault("hibernate.connection.pool_size", poolSize);
+         setDefault("eclipselink.connection-pool.default.max", poolSize);
+
+         setDefault("eclipselink.jdbc.cache-statements", statementCacheSize > 0);
+         setDefault("eclipselink.jdbc.cache-statements.size", statementCacheSize);
+
+         setDefault("hibernate.jdbc.batch_size", batchSize);
+         setDefault("hibernate.order_inserts", true);
+         setDefault("hibernate.order_updates", true);
+         setDefault("eclipselink.jdbc.batch-writing", batchSize > 1 ? "JDBC" : "None");
+         setDefault("eclipselink.jdbc.batch-writing.size", batchSize);
+
+         setDefault("hibernate.jdbc.fetch_size", fetchSize);
+
+         // Chunks are excluded from the shared cache by their entity
+         setDefault("javax.persistence.sharedCache.mode", sharedCache ? "DISABLE_SELECTIVE" : "NONE");
+         setDefault("hibernate.cache.use_second_level_cache", sharedCache);
+      }
+
+      @Inject(optional = true)
+      void setDataSource(DataSource dataSource) {
+         properties.put("javax.persistence.nonJtaDataSource", dataSource);
+         properties.put("hibernate.connection.datasource", dataSource);
+      }
+
+      private void setDefault(String key, Object value) {
+         if (!properties.containsKey(key)) {
+            properties.put(key, String.valueOf(value));
+         }
+      }
+   }
+
+}
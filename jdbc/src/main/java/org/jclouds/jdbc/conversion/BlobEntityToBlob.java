@@ -18,25 +18,40 @@ package org.jclouds.jdbc.conversion;
 
 import com.google.common.base.Function;
 import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import org.jclouds.Constants;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobBuilder;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.PayloadEntity;
+import org.jclouds.jdbc.reference.JdbcConstants;
 import org.jclouds.jdbc.service.JdbcService;
-import org.jclouds.jdbc.util.JdbcInputStream;
+import org.jclouds.jdbc.util.JdbcByteSource;
+
+import javax.inject.Named;
 
 public class BlobEntityToBlob implements Function<BlobEntity, Blob> {
 
    private final Provider<BlobBuilder> blobBuilders;
    private final JdbcService jdbcService;
+   private final ListeningExecutorService userExecutor;
+   private final int chunkPrefetch;
+   private final boolean chunkStreaming;
 
    @Inject
-   BlobEntityToBlob(Provider<BlobBuilder> blobBuilders, JdbcService jdbcService) {
+   BlobEntityToBlob(Provider<BlobBuilder> blobBuilders, JdbcService jdbcService,
+         @Named(Constants.PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+         @Named(JdbcConstants.PROPERTY_CHUNK_PREFETCH) int chunkPrefetch,
+         @Named(JdbcConstants.PROPERTY_CHUNK_STREAMING) boolean chunkStreaming) {
       this.blobBuilders = blobBuilders;
       this.jdbcService = jdbcService;
+      this.userExecutor = userExecutor;
+      this.chunkPrefetch = chunkPrefetch;
+      this.chunkStreaming = chunkStreaming;
    }
 
    @Override
@@ -53,8 +68,18 @@ public class BlobEntityToBlob implements Function<BlobEntity, Blob> {
       if (blobEntity.isDirectory()) {
          builder.type(StorageType.FOLDER);
       }
+      else if (payload.getData() != null) {
+         builder.payload(ByteSource.wrap(payload.getData()));
+      }
       else {
-         builder.payload(new JdbcInputStream(jdbcService, blobEntity.getPayload().getChunks()));
+         // Blobs stored before the chunk size was recorded were always split in default size chunks
+         int chunkSize = payload.getChunkSize() == null ? JdbcConstants.DEFAULT_CHUNK_SIZE : payload.getChunkSize();
+         // Every chunk but the last one is full, the chunks are counted only if the content length is unknown
+         Long contentLength = payload.getContentLength();
+         int chunkCount = contentLength == null ? jdbcService.countChunks(payload.getId())
+               : (int) ((contentLength + chunkSize - 1) / chunkSize);
+         builder.payload(new JdbcByteSource(jdbcService, payload.getId(), chunkCount, chunkSize, contentLength,
+               userExecutor, chunkPrefetch, chunkStreaming));
       }
 
       Blob blob = builder.build();
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.conversion;
+
+import java.util.Date;
+
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.io.MutableContentMetadata;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Builds blob metadata from the rows of {@link org.jclouds.jdbc.repository.BlobRepository#METADATA_COLUMNS}.
+ */
+public final class BlobMetadataRows {
+
+   private BlobMetadataRows() {
+      throw new AssertionError("Intentionally Unimplemented");
+   }
+
+   public static MutableBlobMetadata toBlobMetadata(String container, Object[] row) {
+      MutableBlobMetadata metadata = new MutableBlobMetadataImpl();
+      metadata.setName((String) row[0]);
+      metadata.setType(Boolean.TRUE.equals(row[1]) ? StorageType.FOLDER : StorageType.BLOB);
+      metadata.setContainer(container);
+      metadata.setSize((Long) row[2]);
+      metadata.setETag((String) row[3]);
+      metadata.setCreationDate((Date) row[4]);
+      metadata.setLastModified((Date) row[5]);
+      MutableContentMetadata contentMetadata = metadata.getContentMetadata();
+      contentMetadata.setCacheControl((String) row[6]);
+      contentMetadata.setContentType((String) row[7]);
+      contentMetadata.setContentLength((Long) row[8]);
+      contentMetadata.setContentMD5(row[9] == null ? null : HashCode.fromBytes((byte[]) row[9]));
+      contentMetadata.setContentDisposition((String) row[10]);
+      contentMetadata.setContentLanguage((String) row[11]);
+      contentMetadata.setContentEncoding((String) row[12]);
+      contentMetadata.setExpires((Date) row[13]);
+      return metadata;
+   }
+
+}
@@ -19,13 +19,17 @@ package org.jclouds.jdbc.entity;
 import org.jclouds.blobstore.domain.BlobAccess;
 
 import javax.persistence.CascadeType;
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
 import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.MapKeyColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.PrePersist;
 import javax.persistence.Table;
@@ -33,10 +37,13 @@ import java.util.Date;
 import java.util.Map;
 
 @Entity
-@Table
+@Table(indexes = @Index(columnList = "id, parentPath, key"))
 @IdClass(value = BlobEntityPK.class)
 public class BlobEntity {
 
+   public static final String USER_METADATA_TABLE = "BlobEntity_userMetadata";
+   public static final String PATH_SEPARATOR = "/";
+
    @Id
    @ManyToOne
    @JoinColumn(name = "id")
@@ -45,10 +52,22 @@ public class BlobEntity {
    @Id
    private String key;
 
+   /**
+    * The key prefix up to and including the last separator, or an empty string for blobs at the root of the
+    * container. Indexed with the container so that the blobs directly inside a directory can be found without
+    * reading the rest of its subtree.
+    */
+   private String parentPath;
+
    @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
    private PayloadEntity payload;
 
    @ElementCollection(fetch = FetchType.EAGER)
+   @CollectionTable(name = USER_METADATA_TABLE, joinColumns = {
+         @JoinColumn(name = "BlobEntity_id", referencedColumnName = "id"),
+         @JoinColumn(name = "BlobEntity_key", referencedColumnName = "key") })
+   @MapKeyColumn(name = "userMetadata_KEY")
+   @Column(name = "userMetadata")
    public Map<String, String> userMetadata;
 
    private Date creationDate;
@@ -76,6 +95,7 @@ public class BlobEntity {
          BlobAccess blobAccess, Map<String, String> userMetadata, Long size, String etag, boolean directory) {
       this.containerEntity = containerEntity;
       this.key = key;
+      this.parentPath = parentPath(key);
       this.creationDate = creationDate;
       this.lastModified = lastModified;
       this.payload = payload;
@@ -108,6 +128,18 @@ public class BlobEntity {
 
    public void setKey(String key) {
       this.key = key;
+      this.parentPath = parentPath(key);
+   }
+
+   public String getParentPath() {
+      return parentPath;
+   }
+
+   /**
+    * Gets the parent path of a key, that is the key prefix up to and including its last separator.
+    */
+   public static String parentPath(String key) {
+      return key == null ? null : key.substring(0, key.lastIndexOf(PATH_SEPARATOR) + 1);
    }
 
    public PayloadEntity getPayload() {
@@ -18,15 +18,19 @@ package org.jclouds.jdbc.entity;
 
 import org.jclouds.jdbc.reference.JdbcConstants;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.Table;
 
 @Entity
-@Table
+@Table(indexes = @Index(columnList = "hash"))
+// Chunks are written from reusable buffers and read once per stream, keep them out of the shared cache
+@Cacheable(false)
 public class ChunkEntity {
 
    @Id
@@ -34,14 +38,32 @@ public class ChunkEntity {
    private Long id;
 
    @Lob
-   @Column(length = JdbcConstants.DEFAULT_CHUNK_SIZE)
+   @Column(length = JdbcConstants.MAX_CHUNK_SIZE)
    private byte[] data;
 
    private int size;
 
+   // SHA-256 of the data, only set when chunks are deduplicated
+   @Column(length = 64)
+   private String hash;
+
+   // Number of payload positions referencing the chunk, null for chunks written before it was recorded
+   private Integer refCount;
+
+   // Segment file and offset of the data when it is stored in files, null when the data is in the LOB column
+   private Integer segmentId;
+
+   private Long segmentOffset;
+
    public ChunkEntity(byte[] data, int size) {
+      this(data, size, null);
+   }
+
+   public ChunkEntity(byte[] data, int size, String hash) {
       this.data = data;
       this.size = size;
+      this.hash = hash;
+      this.refCount = 1;
    }
 
    public ChunkEntity() {
@@ -70,4 +92,36 @@ public class ChunkEntity {
    public void setSize(int size) {
       this.size = size;
    }
+
+   public String getHash() {
+      return hash;
+   }
+
+   public void setHash(String hash) {
+      this.hash = hash;
+   }
+
+   public Integer getRefCount() {
+      return refCount;
+   }
+
+   public void setRefCount(Integer refCount) {
+      this.refCount = refCount;
+   }
+
+   public Integer getSegmentId() {
+      return segmentId;
+   }
+
+   public void setSegmentId(Integer segmentId) {
+      this.segmentId = segmentId;
+   }
+
+   public Long getSegmentOffset() {
+      return segmentOffset;
+   }
+
+   public void setSegmentOffset(Long segmentOffset) {
+      this.segmentOffset = segmentOffset;
+   }
 }
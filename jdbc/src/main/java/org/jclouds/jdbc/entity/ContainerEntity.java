@@ -41,14 +41,18 @@ public class ContainerEntity {
 
    private ContainerAccess containerAccess;
 
+   private Integer chunkSize;
+
    public ContainerEntity() {
    }
 
-   public ContainerEntity(Long id, String name, Date creationDate, ContainerAccess containerAccess) {
+   public ContainerEntity(Long id, String name, Date creationDate, ContainerAccess containerAccess,
+         Integer chunkSize) {
       this.id = id;
       this.name = name;
       this.creationDate = creationDate;
       this.containerAccess = containerAccess;
+      this.chunkSize = chunkSize;
    }
 
    @PrePersist
@@ -91,6 +95,14 @@ public class ContainerEntity {
       this.containerAccess = containerAccess;
    }
 
+   public Integer getChunkSize() {
+      return chunkSize;
+   }
+
+   public void setChunkSize(Integer chunkSize) {
+      this.chunkSize = chunkSize;
+   }
+
    public static Builder builder() {
       return new Builder();
    }
@@ -98,6 +110,7 @@ public class ContainerEntity {
    public static class Builder {
       private String name;
       private ContainerAccess containerAccess;
+      private Integer chunkSize;
 
       public Builder() {
       }
@@ -112,8 +125,13 @@ public class ContainerEntity {
          return this;
       }
 
+      public Builder chunkSize(Integer chunkSize){
+         this.chunkSize = chunkSize;
+         return this;
+      }
+
       public ContainerEntity build() {
-         return new ContainerEntity(null, name, null, containerAccess);
+         return new ContainerEntity(null, name, null, containerAccess, chunkSize);
       }
    }
 }
@@ -17,25 +17,46 @@
 package org.jclouds.jdbc.entity;
 
 import com.google.common.collect.ImmutableList;
+import org.jclouds.jdbc.reference.JdbcConstants;
 
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
 import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.OrderColumn;
 import java.util.Date;
 import java.util.List;
 
 @Entity
 public class PayloadEntity {
 
+   public static final String CHUNKS_TABLE = "PayloadEntity_chunks";
+
    @Id
    @GeneratedValue
    private Long id;
 
-   @ElementCollection(fetch = FetchType.EAGER)
+   // Loaded only to change or release the chunks, readers address chunks by payload id and position
+   @ElementCollection(fetch = FetchType.LAZY)
+   @CollectionTable(name = CHUNKS_TABLE, joinColumns = @JoinColumn(name = "PayloadEntity_id"),
+         indexes = @Index(columnList = "PayloadEntity_id, position"))
+   @Column(name = "chunks")
+   // An indexed list keeps the chunk order, and the same chunk may appear several times once deduplicated
+   @OrderColumn(name = "position")
    private List<Long> chunks;
 
+   private Integer chunkSize;
+
+   @Lob
+   @Column(length = JdbcConstants.MAX_INLINE_THRESHOLD)
+   private byte[] data;
+
    private String cacheControl;
    private String contentType;
    private Long contentLength;
@@ -45,9 +66,11 @@ public class PayloadEntity {
    private String contentEncoding;
    private Date expires;
 
-   public PayloadEntity(List<Long> chunks, String cacheControl, String contentType, Long contentLength, byte[] contentMD5,
+   public PayloadEntity(List<Long> chunks, Integer chunkSize, byte[] data, String cacheControl, String contentType, Long contentLength, byte[] contentMD5,
          String contentDisposition, String contentLanguage, String contentEncoding, Date expires) {
       this.chunks = chunks;
+      this.chunkSize = chunkSize;
+      this.data = data;
       this.cacheControl = cacheControl;
       this.contentType = contentType;
       this.contentLength = contentLength;
@@ -77,6 +100,22 @@ public class PayloadEntity {
       this.chunks = chunks;
    }
 
+   public Integer getChunkSize() {
+      return chunkSize;
+   }
+
+   public void setChunkSize(Integer chunkSize) {
+      this.chunkSize = chunkSize;
+   }
+
+   public byte[] getData() {
+      return data;
+   }
+
+   public void setData(byte[] data) {
+      this.data = data;
+   }
+
    public String getCacheControl() {
       return cacheControl;
    }
@@ -147,6 +186,8 @@ public class PayloadEntity {
 
    public static class Builder {
       private List<Long> chunks;
+      private Integer chunkSize;
+      private byte[] data;
       private String cacheControl;
       private String contentType;
       private Long contentLength;
@@ -165,6 +206,16 @@ public class PayloadEntity {
          return this;
       }
 
+      public Builder chunkSize(Integer chunkSize) {
+         this.chunkSize = chunkSize;
+         return this;
+      }
+
+      public Builder data(byte[] data) {
+         this.data = data;
+         return this;
+      }
+
       public Builder cacheControl(String cacheControl) {
          this.cacheControl = cacheControl;
          return this;
@@ -206,7 +257,7 @@ public class PayloadEntity {
       }
 
       public PayloadEntity build() {
-         return new PayloadEntity(chunks, cacheControl, contentType, contentLength, contentMD5, contentDisposition, contentLanguage, contentEncoding, expires);
+         return new PayloadEntity(chunks, chunkSize, data, cacheControl, contentType, contentLength, contentMD5, contentDisposition, contentLanguage, contentEncoding, expires);
       }
    }
 
@@ -21,8 +21,176 @@ package org.jclouds.jdbc.reference;
  */
 public final class JdbcConstants {
 
+    /**
+     * Size in bytes of the chunks blobs are split into, unless the container overrides it
+     */
+    public static final String PROPERTY_CHUNK_SIZE = "jclouds.jdbc.chunk.size";
+
     public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
 
+    /**
+     * Largest chunk size supported by the chunk table
+     */
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Blobs up to this size in bytes are stored inline with their payload instead of in chunks, 0 disables it
+     */
+    public static final String PROPERTY_INLINE_THRESHOLD = "jclouds.jdbc.inline.threshold";
+
+    public static final int DEFAULT_INLINE_THRESHOLD = 8 * 1024;
+
+    /**
+     * Largest inline threshold supported by the payload table
+     */
+    public static final int MAX_INLINE_THRESHOLD = 64 * 1024;
+
+    /**
+     * Number of chunks loaded in the background while a blob is being read
+     */
+    public static final String PROPERTY_CHUNK_PREFETCH = "jclouds.jdbc.chunk.prefetch";
+
+    public static final int DEFAULT_CHUNK_PREFETCH = 2;
+
+    /**
+     * Maximum number of chunks written to the database in a single flush
+     */
+    public static final String PROPERTY_CHUNK_BATCH_SIZE = "jclouds.jdbc.chunk.batch-size";
+
+    public static final int DEFAULT_CHUNK_BATCH_SIZE = 4;
+
+    /**
+     * Maximum time in milliseconds pending chunks are held before being flushed
+     */
+    public static final String PROPERTY_CHUNK_FLUSH_INTERVAL = "jclouds.jdbc.chunk.flush-interval";
+
+    public static final long DEFAULT_CHUNK_FLUSH_INTERVAL = 1000;
+
+    /**
+     * Whether identical chunks are stored once and shared between payloads
+     */
+    public static final String PROPERTY_CHUNK_DEDUP = "jclouds.jdbc.chunk.dedup";
+
+    public static final boolean DEFAULT_CHUNK_DEDUP = false;
+
+    /**
+     * Whether chunks of blobs with a known content length are streamed to and from their LOB column instead of
+     * being held in memory. Each stream being read holds a database connection, and chunks are not streamed
+     * when they are deduplicated
+     */
+    public static final String PROPERTY_CHUNK_STREAMING = "jclouds.jdbc.chunk.streaming";
+
+    public static final boolean DEFAULT_CHUNK_STREAMING = false;
+
+    /**
+     * Directory of the segment files chunk content is appended to instead of the LOB column, the chunk table then
+     * only keeps the location of each chunk. Empty to store chunks in the database. The directory must not be
+     * shared between processes
+     */
+    public static final String PROPERTY_CHUNK_DIRECTORY = "jclouds.jdbc.chunk.directory";
+
+    public static final String DEFAULT_CHUNK_DIRECTORY = "";
+
+    /**
+     * Size in bytes after which chunks are appended to a new segment file
+     */
+    public static final String PROPERTY_CHUNK_SEGMENT_SIZE = "jclouds.jdbc.chunk.segment-size";
+
+    public static final long DEFAULT_CHUNK_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * Maximum number of blobs deleted in a single transaction when clearing a container or a directory
+     */
+    public static final String PROPERTY_DELETE_BATCH_SIZE = "jclouds.jdbc.delete.batch-size";
+
+    public static final int DEFAULT_DELETE_BATCH_SIZE = 500;
+
+    /**
+     * Maximum number of pooled database connections
+     */
+    public static final String PROPERTY_POOL_SIZE = "jclouds.jdbc.pool.size";
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    /**
+     * Number of threads running the database operations of {@link org.jclouds.jdbc.blobstore.JdbcAsyncBlobStore},
+     * or 0 for one thread per pooled connection
+     */
+    public static final String PROPERTY_DB_THREADS = "jclouds.jdbc.db-threads";
+
+    public static final int DEFAULT_DB_THREADS = 0;
+
+    /**
+     * Maximum number of operations of {@link org.jclouds.jdbc.blobstore.JdbcAsyncBlobStore} waiting for a database
+     * thread
+     */
+    public static final String PROPERTY_DB_QUEUE_SIZE = "jclouds.jdbc.db-queue.size";
+
+    public static final int DEFAULT_DB_QUEUE_SIZE = 1024;
+
+    /**
+     * What happens to an operation submitted while the database queue is full: {@value #DB_QUEUE_CALLER_RUNS} runs it
+     * on the calling thread, {@value #DB_QUEUE_ABORT} rejects it with a
+     * {@link java.util.concurrent.RejectedExecutionException}
+     */
+    public static final String PROPERTY_DB_QUEUE_POLICY = "jclouds.jdbc.db-queue.policy";
+
+    public static final String DB_QUEUE_CALLER_RUNS = "caller-runs";
+
+    public static final String DB_QUEUE_ABORT = "abort";
+
+    public static final String DEFAULT_DB_QUEUE_POLICY = DB_QUEUE_CALLER_RUNS;
+
+    /**
+     * Number of prepared statements cached per connection, where the connection pool or the database supports it
+     */
+    public static final String PROPERTY_STATEMENT_CACHE_SIZE = "jclouds.jdbc.statement-cache.size";
+
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * Maximum number of statements sent to the database in a single JDBC batch
+     */
+    public static final String PROPERTY_JDBC_BATCH_SIZE = "jclouds.jdbc.batch-size";
+
+    public static final int DEFAULT_JDBC_BATCH_SIZE = 32;
+
+    /**
+     * Number of rows fetched from the database at once when reading query results
+     */
+    public static final String PROPERTY_FETCH_SIZE = "jclouds.jdbc.fetch-size";
+
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    /**
+     * Whether containers, blobs and payloads are kept in the shared cache of the persistence provider. Hibernate
+     * also needs a cache region factory in the persistence unit properties
+     */
+    public static final String PROPERTY_SHARED_CACHE = "jclouds.jdbc.shared-cache";
+
+    public static final boolean DEFAULT_SHARED_CACHE = false;
+
+    /**
+     * Estimated size in bytes of the blob metadata kept in memory to answer metadata requests without reading the
+     * database, or 0 to disable the cache
+     */
+    public static final String PROPERTY_METADATA_CACHE_SIZE = "jclouds.jdbc.metadata-cache.size";
+
+    public static final long DEFAULT_METADATA_CACHE_SIZE = 0;
+
+    /**
+     * Milliseconds cached blob metadata is used for. Blobs changed by another process, or read while being
+     * changed, may be seen with their previous metadata for this long at most
+     */
+    public static final String PROPERTY_METADATA_CACHE_EXPIRY = "jclouds.jdbc.metadata-cache.expiry";
+
+    public static final long DEFAULT_METADATA_CACHE_EXPIRY = 10000;
+
+    /**
+     * Largest part size in bytes accepted by multipart uploads, rounded down to a multiple of the chunk size
+     */
+    public static final long MAX_MULTIPART_PART_SIZE = 5L * 1024 * 1024 * 1024;
+
     private JdbcConstants() {
         throw new AssertionError("Intentionally Unimplemented");
     }
@@ -22,33 +22,315 @@ import com.google.inject.Singleton;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.BlobEntityPK;
 import org.jclouds.jdbc.entity.ContainerEntity;
+import org.jclouds.jdbc.entity.PayloadEntity;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.List;
 
 @Singleton
 public class BlobRepository extends GenericRepository<BlobEntity, BlobEntityPK> {
 
+   /**
+    * The columns needed to describe a blob, in this order: key, directory, size, etag, creation date, last modified,
+    * cache control, content type, content length, content MD5, content disposition, content language, content
+    * encoding and expires.
+    */
+   public static final String METADATA_COLUMNS = "b.key, b.directory, b.size, b.etag, b.creationDate, "
+         + "b.lastModified, p.cacheControl, p.contentType, p.contentLength, p.contentMD5, p.contentDisposition, "
+         + "p.contentLanguage, p.contentEncoding, p.expires";
+
    @Inject
    private BlobRepository(Provider<EntityManager> entityManager) {
       super(entityManager);
    }
 
-    public List<BlobEntity> findBlobsByContainer(ContainerEntity containerEntity) {
-        return entityManager.get().createQuery("SELECT b FROM " + entityClass.getName() + " b "
-              + "WHERE"
-              + " b.containerEntity = :containerEntity", entityClass)
-                .setParameter("containerEntity", containerEntity)
-                .getResultList();
-    }
+   public boolean blobExists(Long containerId, String key) {
+      return !entityManager.get().createQuery("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity.id = :containerId AND b.key = :key", String.class)
+            .setParameter("containerId", containerId)
+            .setParameter("key", key)
+            .setMaxResults(1)
+            .getResultList().isEmpty();
+   }
+
+   /**
+    * Finds the content type of a blob.
+    *
+    * @return the content type, or null if the blob does not exist or has no content type
+    */
+   public String findContentType(Long containerId, String key) {
+      List<String> contentTypes = entityManager.get().createQuery("SELECT p.contentType FROM "
+            + entityClass.getName() + " b JOIN b.payload p "
+            + "WHERE b.containerEntity.id = :containerId AND b.key = :key", String.class)
+            .setParameter("containerId", containerId)
+            .setParameter("key", key)
+            .setMaxResults(1)
+            .getResultList();
+      return contentTypes.isEmpty() ? null : contentTypes.get(0);
+   }
+
+   /**
+    * Counts the blobs of a container in a key range.
+    *
+    * @param from the inclusive lower bound of the keys, or null to count from the first key
+    * @param to the exclusive upper bound of the keys, or null to count up to the last key
+    * @param separator if not null, blobs with this separator in their key after the lower bound are not counted
+    */
+   public long countBlobs(Long containerId, String from, String to, String separator) {
+      TypedQuery<Long> query = entityManager.get().createQuery("SELECT COUNT(b.key) FROM " + entityClass.getName()
+            + " b WHERE b.containerEntity.id = :containerId"
+            + (from == null ? "" : " AND b.key >= :from")
+            + (to == null ? "" : " AND b.key < :to")
+            + (separator == null ? "" : " AND LOCATE(:separator, b.key, :start) = 0"), Long.class)
+            .setParameter("containerId", containerId);
+      if (from != null) {
+         query.setParameter("from", from);
+      }
+      if (to != null) {
+         query.setParameter("to", to);
+      }
+      if (separator != null) {
+         query.setParameter("separator", separator);
+         query.setParameter("start", from == null ? 1 : from.length() + 1);
+      }
+      return query.getSingleResult();
+   }
 
-   public List<BlobEntity> findBlobsByDirectory(ContainerEntity containerEntity, String directory) {
-      return entityManager.get().createQuery("SELECT b FROM " + entityClass.getName() + " b "
-            + "WHERE b.containerEntity = :containerEntity AND b.key != :directoryName AND b.key LIKE :directoryLike ", entityClass)
+   public List<String> findBlobKeysByContainer(ContainerEntity containerEntity) {
+      return entityManager.get().createQuery("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity = :containerEntity", String.class)
             .setParameter("containerEntity", containerEntity)
-            .setParameter("directoryName", directory)
-            .setParameter("directoryLike", directory + "%")
             .getResultList();
    }
 
+   /**
+    * Finds the metadata of a blob, without its user metadata.
+    *
+    * @return the {@link #METADATA_COLUMNS} of the blob, or null if the blob does not exist
+    */
+   public Object[] findBlobMetadata(Long containerId, String key) {
+      List<Object[]> rows = entityManager.get().createQuery("SELECT " + METADATA_COLUMNS + " FROM "
+            + entityClass.getName() + " b LEFT JOIN b.payload p "
+            + "WHERE b.containerEntity.id = :containerId AND b.key = :key", Object[].class)
+            .setParameter("containerId", containerId)
+            .setParameter("key", key)
+            .setMaxResults(1)
+            .getResultList();
+      return rows.isEmpty() ? null : rows.get(0);
+   }
+
+   /**
+    * Finds a page of blob metadata ordered by key, starting after the given key. Only the
+    * {@link #METADATA_COLUMNS} are selected.
+    *
+    * @param from the lower bound of the keys, or null to start from the first key
+    * @param fromInclusive whether a key equal to the lower bound is part of the page
+    * @param to the exclusive upper bound of the keys, or null to read up to the last key
+    * @param maxResults the maximum number of rows to return
+    */
+   public List<Object[]> findBlobMetadataPage(Long containerId, String from, boolean fromInclusive, String to,
+         int maxResults) {
+      return findBlobMetadataPage(containerId, null, from, fromInclusive, to, maxResults);
+   }
+
+   /**
+    * Finds a page of blob metadata ordered by key, like {@link #findBlobMetadataPage(Long, String, boolean,
+    * String, int)}, restricted to the blobs directly inside a directory.
+    *
+    * @param parentPath the parent path of the blobs, or null to read blobs at any depth
+    */
+   public List<Object[]> findBlobMetadataPage(Long containerId, String parentPath, String from,
+         boolean fromInclusive, String to, int maxResults) {
+      StringBuilder query = new StringBuilder("SELECT " + METADATA_COLUMNS + " FROM " + entityClass.getName() + " b LEFT JOIN b.payload p "
+            + "WHERE b.containerEntity.id = :containerId");
+      if (parentPath != null) {
+         query.append(" AND b.parentPath = :parentPath");
+      }
+      if (from != null) {
+         query.append(fromInclusive ? " AND b.key >= :from" : " AND b.key > :from");
+      }
+      if (to != null) {
+         query.append(" AND b.key < :to");
+      }
+      query.append(" ORDER BY b.key");
+
+      TypedQuery<Object[]> page = entityManager.get().createQuery(query.toString(), Object[].class)
+            .setParameter("containerId", containerId)
+            .setMaxResults(maxResults);
+      if (parentPath != null) {
+         page.setParameter("parentPath", parentPath);
+      }
+      if (from != null) {
+         page.setParameter("from", from);
+      }
+      if (to != null) {
+         page.setParameter("to", to);
+      }
+      return page.getResultList();
+   }
+
+   /**
+    * Finds the smallest parent path of the blobs of a container in a range. As every blob of a subdirectory
+    * has a parent path starting with the subdirectory, this finds the next subdirectory holding blobs with a
+    * single index lookup.
+    *
+    * @param from the lower bound of the parent paths
+    * @param fromInclusive whether a parent path equal to the lower bound is part of the range
+    * @param to the exclusive upper bound of the parent paths, or null to search up to the last parent path
+    * @return the parent path, or null if no blob has a parent path in the range
+    */
+   public String findFirstParentPath(Long containerId, String from, boolean fromInclusive, String to) {
+      TypedQuery<String> query = entityManager.get().createQuery("SELECT MIN(b.parentPath) FROM "
+            + entityClass.getName() + " b WHERE b.containerEntity.id = :containerId"
+            + (fromInclusive ? " AND b.parentPath >= :from" : " AND b.parentPath > :from")
+            + (to == null ? "" : " AND b.parentPath < :to"), String.class)
+            .setParameter("containerId", containerId)
+            .setParameter("from", from);
+      if (to != null) {
+         query.setParameter("to", to);
+      }
+      return query.getSingleResult();
+   }
+
+   /**
+    * Checks if a container holds blobs stored before parent paths were recorded.
+    */
+   public boolean hasBlobsWithoutParentPath(Long containerId) {
+      return !entityManager.get().createQuery("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity.id = :containerId AND b.parentPath IS NULL", String.class)
+            .setParameter("containerId", containerId)
+            .setMaxResults(1)
+            .getResultList().isEmpty();
+   }
+
+   /**
+    * Counts the blobs directly inside a directory.
+    *
+    * @param parentPath the parent path of the blobs, an empty string for the root of the container
+    */
+   public long countBlobsByParentPath(Long containerId, String parentPath) {
+      return entityManager.get().createQuery("SELECT COUNT(b.key) FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity.id = :containerId AND b.parentPath = :parentPath", Long.class)
+            .setParameter("containerId", containerId)
+            .setParameter("parentPath", parentPath)
+            .getSingleResult();
+   }
+
+   /**
+    * Finds the user metadata entries of the given blobs as (key, metadata name, metadata value) rows.
+    */
+   public List<Object[]> findUserMetadataByKeys(Long containerId, Collection<String> keys) {
+      return entityManager.get().createQuery("SELECT b.key, KEY(m), VALUE(m) FROM " + entityClass.getName() + " b "
+            + "JOIN b.userMetadata m WHERE b.containerEntity.id = :containerId AND b.key IN :keys", Object[].class)
+            .setParameter("containerId", containerId)
+            .setParameter("keys", keys)
+            .getResultList();
+   }
+
+   /**
+    * Finds the keys of the blobs of a container in a key range, in key order.
+    *
+    * @param from the inclusive lower bound of the keys, or null to start from the first key
+    * @param to the exclusive upper bound of the keys, or null to read up to the last key
+    * @param includeDirectories whether directory blobs are part of the result
+    * @param maxResults the maximum number of keys to return
+    */
+   public List<String> findBlobKeysInRange(ContainerEntity containerEntity, String from, String to,
+         boolean includeDirectories, int maxResults) {
+      TypedQuery<String> query = entityManager.get().createQuery("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE " + rangePredicate(from, to, includeDirectories, "<") + " ORDER BY b.key", String.class)
+            .setMaxResults(maxResults);
+      return setRangeParameters(query, containerEntity, from, to).getResultList();
+   }
+
+   /**
+    * Deletes the payload of a replaced blob, along with its chunk list. The blob references its new payload.
+    */
+   public void deletePayload(PayloadEntity payload) {
+      entityManager.get().remove(payload);
+   }
+
+   /**
+    * Deletes the blobs of a container whose keys are between two keys, along with their payloads, chunks
+    * and user metadata. The collection tables are not handled by JPQL bulk deletes, so they are cleared
+    * with native statements first.
+    *
+    * @param first the first key to delete
+    * @param last the last key to delete
+    * @param includeDirectories whether directory blobs in the range are deleted
+    * @return the number of blobs deleted
+    */
+   public int deleteBlobsInRange(ContainerEntity containerEntity, String first, String last,
+         boolean includeDirectories) {
+      EntityManager em = entityManager.get();
+      List<Long> payloadIds = setRangeParameters(em.createQuery("SELECT b.payload.id FROM " + entityClass.getName()
+            + " b WHERE " + rangePredicate(first, last, includeDirectories, "<="), Long.class),
+            containerEntity, first, last).getResultList();
+
+      // Chunks may be shared with other payloads, each reference to them is released before deleting the
+      // chunks nothing references anymore
+      String payloads = nativeRangeSelect("PAYLOAD_ID", includeDirectories);
+      String chunks = "SELECT c.chunks FROM " + PayloadEntity.CHUNKS_TABLE + " c WHERE c.PayloadEntity_id IN ("
+            + payloads + ")";
+      executeNativeRangeUpdate("UPDATE ChunkEntity SET refCount = refCount - (SELECT COUNT(*) FROM "
+            + PayloadEntity.CHUNKS_TABLE + " c WHERE c.chunks = ChunkEntity.ID AND c.PayloadEntity_id IN ("
+            + payloads + ")) WHERE ID IN (" + chunks + ")", containerEntity, first, last, includeDirectories);
+      executeNativeRangeUpdate("DELETE FROM ChunkEntity WHERE ID IN (" + chunks + ") "
+            + "AND (refCount IS NULL OR refCount <= 0)", containerEntity, first, last, includeDirectories);
+      executeNativeRangeUpdate("DELETE FROM " + PayloadEntity.CHUNKS_TABLE + " WHERE PayloadEntity_id IN ("
+            + payloads + ")", containerEntity, first, last, includeDirectories);
+      executeNativeRangeUpdate("DELETE FROM " + BlobEntity.USER_METADATA_TABLE + " WHERE BlobEntity_id = ?1"
+            + " AND BlobEntity_key IN (" + nativeRangeSelect("KEY", includeDirectories) + ")",
+            containerEntity, first, last, includeDirectories);
+
+      int deleted = setRangeParameters(em.createQuery("DELETE FROM " + entityClass.getName() + " b WHERE "
+            + rangePredicate(first, last, includeDirectories, "<=")), containerEntity, first, last)
+            .executeUpdate();
+      if (!payloadIds.isEmpty()) {
+         em.createQuery("DELETE FROM " + PayloadEntity.class.getName() + " p WHERE p.id IN :ids")
+               .setParameter("ids", payloadIds)
+               .executeUpdate();
+      }
+      return deleted;
+   }
+
+   private static String rangePredicate(String from, String to, boolean includeDirectories, String upperOperator) {
+      return "b.containerEntity = :containerEntity"
+            + (from == null ? "" : " AND b.key >= :from")
+            + (to == null ? "" : " AND b.key " + upperOperator + " :to")
+            + (includeDirectories ? "" : " AND b.directory = false");
+   }
+
+   private static <Q extends Query> Q setRangeParameters(Q query, ContainerEntity containerEntity, String from,
+         String to) {
+      query.setParameter("containerEntity", containerEntity);
+      if (from != null) {
+         query.setParameter("from", from);
+      }
+      if (to != null) {
+         query.setParameter("to", to);
+      }
+      return query;
+   }
+
+   private static String nativeRangeSelect(String column, boolean includeDirectories) {
+      return "SELECT b." + column + " FROM BlobEntity b WHERE b.ID = ?1 AND b.KEY >= ?2 AND b.KEY <= ?3"
+            + (includeDirectories ? "" : " AND b.DIRECTORY = ?4");
+   }
+
+   private void executeNativeRangeUpdate(String sql, ContainerEntity containerEntity, String first, String last,
+         boolean includeDirectories) {
+      Query query = entityManager.get().createNativeQuery(sql)
+            .setParameter(1, containerEntity.getId())
+            .setParameter(2, first)
+            .setParameter(3, last);
+      if (!includeDirectories) {
+         query.setParameter(4, false);
+      }
+      query.executeUpdate();
+   }
+
 }
@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.repository;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.jclouds.jdbc.entity.ChunkEntity;
+import org.jclouds.jdbc.reference.JdbcConstants;
+
+import javax.inject.Named;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stores the content of chunks in append-only segment files of a local directory instead of their LOB column, the
+ * chunk table keeping the segment and offset of each chunk. Space is reserved at the end of the current segment
+ * before a chunk is written, so that chunks of concurrent uploads are written in parallel, and a new segment is
+ * started once the current one reaches the segment size. Writes are forced to disk once per transaction by
+ * {@link #sync()}, and the segments a thread writes to stay open until {@link #endWrites()}, so that compaction
+ * never deletes a segment holding chunks of a transaction that has not committed yet.
+ */
+@Singleton
+public class ChunkFileStore {
+
+   private static final Pattern SEGMENT_NAME = Pattern.compile("chunks-(\\d+)\\.seg");
+   private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+   private final File directory;
+   private final long segmentSize;
+   private int segmentId;
+   private long segmentEnd;
+   // Segments written to by transactions that have not ended, counted once per thread
+   private final Multiset<Integer> openSegments = ConcurrentHashMultiset.create();
+   private final ThreadLocal<Set<Integer>> writtenSegments = new ThreadLocal<Set<Integer>>() {
+      @Override
+      protected Set<Integer> initialValue() {
+         return Sets.newHashSet();
+      }
+   };
+
+   @Inject
+   ChunkFileStore(@Named(JdbcConstants.PROPERTY_CHUNK_DIRECTORY) String directory,
+         @Named(JdbcConstants.PROPERTY_CHUNK_SEGMENT_SIZE) long segmentSize) {
+      checkArgument(segmentSize > 0, "segment size must be positive, was %s", segmentSize);
+      this.segmentSize = segmentSize;
+      if (directory.isEmpty()) {
+         this.directory = null;
+         return;
+      }
+      this.directory = new File(directory);
+      checkArgument(this.directory.isDirectory() || this.directory.mkdirs(), "could not create chunk directory %s",
+            directory);
+      // Appending continues in the last segment written by a previous run
+      File[] files = this.directory.listFiles();
+      for (File file : files == null ? new File[0] : files) {
+         Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+         if (matcher.matches() && Integer.parseInt(matcher.group(1)) >= segmentId) {
+            segmentId = Integer.parseInt(matcher.group(1));
+            segmentEnd = file.length();
+         }
+      }
+   }
+
+   /**
+    * Whether chunks are stored in segment files, otherwise they are stored in the database.
+    */
+   public boolean isEnabled() {
+      return directory != null;
+   }
+
+   /**
+    * Writes the content of a chunk at the end of the current segment, setting the location of the chunk.
+    */
+   public void write(ChunkEntity chunk, byte[] data, int size) throws IOException {
+      reserve(chunk, size);
+      FileChannel channel = openSegment(chunk.getSegmentId(), true);
+      try {
+         ByteBuffer buffer = ByteBuffer.wrap(data, 0, size);
+         long position = chunk.getSegmentOffset();
+         while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+         }
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Writes the content of a chunk at the end of the current segment as it is read from the stream, setting the
+    * location of the chunk and its size if the stream ends before.
+    *
+    * @param size the number of bytes of the chunk, the space reserved for it in the segment
+    */
+   public void write(ChunkEntity chunk, InputStream data, int size) throws IOException {
+      reserve(chunk, size);
+      FileChannel channel = openSegment(chunk.getSegmentId(), true);
+      try {
+         ReadableByteChannel in = Channels.newChannel(data);
+         ByteBuffer buffer = ByteBuffer.allocate(Math.min(size, COPY_BUFFER_SIZE));
+         long written = 0;
+         while (written < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - written));
+            if (in.read(buffer) == -1) {
+               break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+               written += channel.write(buffer, chunk.getSegmentOffset() + written);
+            }
+         }
+         chunk.setSize((int) written);
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Copies the content of a chunk stored in a segment at the end of the current segment, setting the location
+    * of the copy.
+    *
+    * @param copy the chunk to locate in the current segment, of the size of the copied chunk
+    */
+   public void copy(int segmentId, long offset, ChunkEntity copy) throws IOException {
+      reserve(copy, copy.getSize());
+      FileChannel channel = openSegment(copy.getSegmentId(), true);
+      try {
+         channel.position(copy.getSegmentOffset());
+         transferTo(segmentId, offset, 0, copy.getSize(), channel);
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Forces the segments written to by the current thread to disk. Called once before the transaction of the
+    * writes commits, instead of once per chunk.
+    */
+   public void sync() throws IOException {
+      for (Integer written : writtenSegments.get()) {
+         FileChannel channel = openSegment(written, true);
+         try {
+            channel.force(false);
+         } finally {
+            channel.close();
+         }
+      }
+   }
+
+   /**
+    * Ends the writes of the current thread once their transaction has committed or rolled back, letting
+    * compaction delete the segments they went to.
+    */
+   public void endWrites() {
+      Set<Integer> written = writtenSegments.get();
+      for (Integer id : written) {
+         openSegments.remove(id);
+      }
+      written.clear();
+   }
+
+   /**
+    * Finds the segments that can be compacted: every segment but the current one and the ones written to by
+    * transactions that have not ended.
+    *
+    * @return the length of each segment by id
+    */
+   public synchronized Map<Integer, Long> findSealedSegments() {
+      ImmutableMap.Builder<Integer, Long> segments = ImmutableMap.builder();
+      File[] files = directory.listFiles();
+      for (File file : files == null ? new File[0] : files) {
+         Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+         if (matcher.matches()) {
+            int id = Integer.parseInt(matcher.group(1));
+            if (id < segmentId && !openSegments.contains(id)) {
+               segments.put(id, file.length());
+            }
+         }
+      }
+      return segments.build();
+   }
+
+   /**
+    * Deletes a segment no chunk refers to anymore.
+    */
+   public boolean deleteSegment(int segmentId) {
+      return segmentFile(segmentId).delete();
+   }
+
+   /**
+    * Reads the content of a chunk stored in a segment.
+    */
+   public byte[] read(ChunkEntity chunk) throws IOException {
+      byte[] data = new byte[chunk.getSize()];
+      FileChannel channel = openSegment(chunk.getSegmentId(), false);
+      try {
+         ByteBuffer buffer = ByteBuffer.wrap(data);
+         long position = chunk.getSegmentOffset();
+         while (buffer.hasRemaining()) {
+            int bytes = channel.read(buffer, position);
+            if (bytes == -1) {
+               throw new EOFException("Segment " + chunk.getSegmentId() + " ends before chunk " + chunk.getId());
+            }
+            position += bytes;
+         }
+      } finally {
+         channel.close();
+      }
+      return data;
+   }
+
+   /**
+    * Opens a stream over the content of a chunk stored in a segment.
+    */
+   public InputStream openStream(int segmentId, long offset, int size) throws IOException {
+      FileInputStream in = new FileInputStream(segmentFile(segmentId));
+      try {
+         in.getChannel().position(offset);
+      } catch (IOException e) {
+         in.close();
+         throw e;
+      }
+      return ByteStreams.limit(in, size);
+   }
+
+   /**
+    * Transfers a range of the content of a chunk stored in a segment to a channel, letting the operating system
+    * copy the bytes from the file where the target channel allows it.
+    *
+    * @param from the offset of the range in the chunk
+    * @param count the number of bytes of the range
+    */
+   public void transferTo(int segmentId, long offset, long from, long count, WritableByteChannel target)
+         throws IOException {
+      FileChannel channel = openSegment(segmentId, false);
+      try {
+         long transferred = 0;
+         while (transferred < count) {
+            long bytes = channel.transferTo(offset + from + transferred, count - transferred, target);
+            if (bytes <= 0) {
+               throw new EOFException("Segment " + segmentId + " ends before offset " + (offset + from + transferred));
+            }
+            transferred += bytes;
+         }
+      } finally {
+         channel.close();
+      }
+   }
+
+   private synchronized void reserve(ChunkEntity chunk, int size) {
+      if (segmentEnd > 0 && segmentEnd + size > segmentSize) {
+         segmentId++;
+         segmentEnd = 0;
+      }
+      chunk.setSegmentId(segmentId);
+      chunk.setSegmentOffset(segmentEnd);
+      segmentEnd += size;
+      if (writtenSegments.get().add(segmentId)) {
+         openSegments.add(segmentId);
+      }
+   }
+
+   private FileChannel openSegment(int segmentId, boolean write) throws IOException {
+      return new RandomAccessFile(segmentFile(segmentId), write ? "rw" : "r").getChannel();
+   }
+
+   private File segmentFile(int segmentId) {
+      return new File(directory, "chunks-" + segmentId + ".seg");
+   }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Streams the content of a range of chunks of a payload from their LOB column or segment file. Each chunk is looked
+ * up by its position in a short read transaction of its own, so that a slow reader never holds a pooled connection
+ * for the whole stream. The transaction of a chunk stored in a segment file ends as soon as its location is known,
+ * the one of a chunk stored in a LOB column ends once the chunk is read or the stream is closed.
+ */
+class ChunkInputStream extends InputStream {
+
+   private final EntityManagerFactory entityManagerFactory;
+   private final ChunkFileStore fileStore;
+   private final Long payloadId;
+   private final int lastChunk;
+   private int nextChunk;
+
+   private EntityManager entityManager;
+   private PreparedStatement statement;
+   private ResultSet resultSet;
+   private InputStream data;
+   private boolean closed;
+
+   ChunkInputStream(EntityManagerFactory entityManagerFactory, ChunkFileStore fileStore, Long payloadId,
+         int firstChunk, int lastChunk) {
+      this.entityManagerFactory = checkNotNull(entityManagerFactory, "entityManagerFactory");
+      this.fileStore = checkNotNull(fileStore, "fileStore");
+      this.payloadId = checkNotNull(payloadId, "payloadId");
+      this.nextChunk = firstChunk;
+      this.lastChunk = lastChunk;
+   }
+
+   @Override
+   public int read() throws IOException {
+      while (ensureData()) {
+         int b = data.read();
+         if (b != -1) {
+            return b;
+         }
+         closeData();
+      }
+      return -1;
+   }
+
+   @Override
+   public int read(byte[] b, int off, int len) throws IOException {
+      checkNotNull(b, "b");
+      checkPositionIndexes(off, off + len, b.length);
+      if (len == 0) {
+         return 0;
+      }
+      while (ensureData()) {
+         int bytes = data.read(b, off, len);
+         if (bytes != -1) {
+            return bytes;
+         }
+         closeData();
+      }
+      return -1;
+   }
+
+   @Override
+   public long skip(long n) throws IOException {
+      long skipped = 0;
+      while (skipped < n && ensureData()) {
+         long count = data.skip(n - skipped);
+         if (count > 0) {
+            skipped += count;
+         } else if (data.read() != -1) {
+            skipped++;
+         } else {
+            closeData();
+         }
+      }
+      return skipped;
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      closeData();
+   }
+
+   /**
+    * Makes sure there is a chunk being read, querying the following one if needed.
+    *
+    * @return false if the end of the stream has been reached
+    */
+   private boolean ensureData() throws IOException {
+      while (data == null) {
+         if (closed || nextChunk >= lastChunk) {
+            close();
+            return false;
+         }
+         boolean lob = false;
+         entityManager = entityManagerFactory.createEntityManager();
+         try {
+            entityManager.getTransaction().begin();
+            statement = GenericRepository.connection(entityManager).prepareStatement(ChunkRepository.SELECT_DATA);
+            statement.setLong(1, payloadId);
+            statement.setInt(2, nextChunk++);
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+               throw new IOException("Could not find chunk.");
+            }
+            int segmentId = resultSet.getInt(1);
+            if (resultSet.wasNull()) {
+               data = resultSet.getBinaryStream(4);
+               lob = true;
+            } else {
+               data = fileStore.openStream(segmentId, resultSet.getLong(2), resultSet.getInt(3));
+            }
+         } catch (SQLException e) {
+            throw new IOException("Could not load chunk", e);
+         } finally {
+            // The stream of a LOB column is only readable while its transaction is open
+            if (!lob) {
+               endTransaction();
+            }
+         }
+      }
+      return true;
+   }
+
+   private void closeData() throws IOException {
+      try {
+         if (data != null) {
+            InputStream in = data;
+            data = null;
+            in.close();
+         }
+      } finally {
+         endTransaction();
+      }
+   }
+
+   /**
+    * Ends the read transaction of the current chunk, if it is still open, releasing its connection.
+    */
+   private void endTransaction() throws IOException {
+      if (entityManager == null) {
+         return;
+      }
+      try {
+         if (resultSet != null) {
+            resultSet.close();
+         }
+         if (statement != null) {
+            statement.close();
+         }
+      } catch (SQLException e) {
+         throw new IOException("Could not close chunk stream", e);
+      } finally {
+         resultSet = null;
+         statement = null;
+         if (entityManager.getTransaction().isActive()) {
+            entityManager.getTransaction().rollback();
+         }
+         entityManager.close();
+         entityManager = null;
+      }
+   }
+
+}
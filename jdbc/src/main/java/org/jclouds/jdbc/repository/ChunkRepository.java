@@ -16,19 +16,351 @@
  */
 package org.jclouds.jdbc.repository;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingInputStream;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import org.jclouds.jdbc.entity.ChunkEntity;
+import org.jclouds.jdbc.entity.PayloadEntity;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
 @Singleton
 public class ChunkRepository extends GenericRepository<ChunkEntity, Long> {
 
+   private static final String SELECT_CHUNK = "SELECT c.ID, c.DATA, c.SIZE, c.HASH, c.REFCOUNT, c.SEGMENTID, "
+         + "c.SEGMENTOFFSET FROM ChunkEntity c JOIN PayloadEntity_chunks p ON c.ID = p.chunks "
+         + "WHERE p.PayloadEntity_id = ?1 AND p.position = ?2";
+   private static final String SELECT_LOCATION = "SELECT c.SEGMENTID, c.SEGMENTOFFSET FROM ChunkEntity c "
+         + "JOIN PayloadEntity_chunks p ON c.ID = p.chunks WHERE p.PayloadEntity_id = ?1 AND p.position = ?2";
+   // The data comes last, some drivers close the stream of a column once a following one is read
+   static final String SELECT_DATA = "SELECT c.SEGMENTID, c.SEGMENTOFFSET, c.SIZE, c.DATA FROM ChunkEntity c "
+         + "JOIN PayloadEntity_chunks p ON c.ID = p.chunks WHERE p.PayloadEntity_id = ? AND p.position = ?";
+   private static final String UPDATE_DATA = "UPDATE ChunkEntity SET DATA = ? WHERE ID = ?";
+   private static final String UPDATE_SIZE = "UPDATE ChunkEntity SET SIZE = ? WHERE ID = ?";
+   private static final String SELECT_LIVE_BYTES = "SELECT c.SEGMENTID, SUM(c.SIZE) FROM ChunkEntity c "
+         + "WHERE c.SEGMENTID IS NOT NULL GROUP BY c.SEGMENTID";
+   private static final String SELECT_SEGMENT_CHUNKS = "SELECT c.ID, c.SEGMENTOFFSET, c.SIZE FROM ChunkEntity c "
+         + "WHERE c.SEGMENTID = ?1";
+   private static final String UPDATE_LOCATION = "UPDATE ChunkEntity SET SEGMENTID = ?1, SEGMENTOFFSET = ?2 "
+         + "WHERE ID = ?3 AND SEGMENTID = ?4";
+
+   private final Provider<EntityManagerFactory> entityManagerFactory;
+   private final ChunkFileStore fileStore;
+
    @Inject
-   private ChunkRepository(Provider<EntityManager> entityManager) {
+   private ChunkRepository(Provider<EntityManager> entityManager,
+         Provider<EntityManagerFactory> entityManagerFactory, ChunkFileStore fileStore) {
       super(entityManager);
+      this.entityManagerFactory = entityManagerFactory;
+      this.fileStore = fileStore;
+   }
+
+   /**
+    * Whether the content of new chunks is stored in segment files instead of the database.
+    */
+   public boolean storesChunksInFiles() {
+      return fileStore.isEnabled();
+   }
+
+   /**
+    * Stores a chunk, in a segment file if they are enabled.
+    *
+    * @param data the content of the chunk, of exactly size bytes
+    * @param hash the content hash of the chunk, or null if it is not deduplicated
+    * @return the chunk, still managed and holding its content only if it is stored in the database
+    */
+   public ChunkEntity create(byte[] data, int size, String hash) throws IOException {
+      if (!fileStore.isEnabled()) {
+         return create(new ChunkEntity(data, size, hash));
+      }
+      ChunkEntity chunk = new ChunkEntity(null, size, hash);
+      fileStore.write(chunk, data, size);
+      return create(chunk);
+   }
+
+   /**
+    * Forces the chunks written to segment files by the current thread to disk, before their transaction commits.
+    */
+   public void syncChunks() throws IOException {
+      if (fileStore.isEnabled()) {
+         fileStore.sync();
+      }
+   }
+
+   /**
+    * Ends the chunk writes of the current thread once their transaction has ended.
+    */
+   public void endChunkWrites() {
+      if (fileStore.isEnabled()) {
+         fileStore.endWrites();
+      }
+   }
+
+   /**
+    * Reclaims the space of segment files taken by bytes no chunk refers to, the chunks deleted or replaced and
+    * the chunks written by transactions that rolled back. Segments without live chunks are deleted. The live
+    * chunks of segments with at least half of their bytes dead are moved to the current segment, the segments
+    * are deleted by the next compaction once readers that located chunks before the move are done with them.
+    *
+    * @return the number of bytes of the segments deleted
+    */
+   public long compactSegments() throws IOException {
+      if (!fileStore.isEnabled()) {
+         return 0;
+      }
+      // The sealed segments are found first, every chunk they hold is committed by then
+      Map<Integer, Long> segments = fileStore.findSealedSegments();
+      if (segments.isEmpty()) {
+         return 0;
+      }
+      EntityManager em = entityManager.get();
+      Map<Integer, Long> liveBytes = Maps.newHashMap();
+      for (Object row : em.createNativeQuery(SELECT_LIVE_BYTES).getResultList()) {
+         Object[] columns = (Object[]) row;
+         liveBytes.put(((Number) columns[0]).intValue(), ((Number) columns[1]).longValue());
+      }
+      long reclaimed = 0;
+      for (Map.Entry<Integer, Long> segment : segments.entrySet()) {
+         Long live = liveBytes.get(segment.getKey());
+         if (live == null) {
+            if (fileStore.deleteSegment(segment.getKey())) {
+               reclaimed += segment.getValue();
+            }
+         } else if (segment.getValue() - live >= live) {
+            moveChunks(em, segment.getKey());
+         }
+      }
+      fileStore.sync();
+      return reclaimed;
+   }
+
+   private void moveChunks(EntityManager em, int segmentId) throws IOException {
+      List<?> rows = em.createNativeQuery(SELECT_SEGMENT_CHUNKS)
+            .setParameter(1, segmentId)
+            .getResultList();
+      for (Object row : rows) {
+         Object[] columns = (Object[]) row;
+         ChunkEntity copy = new ChunkEntity(null, ((Number) columns[2]).intValue());
+         fileStore.copy(segmentId, ((Number) columns[1]).longValue(), copy);
+         // A chunk deleted meanwhile is not updated, its copy is dead bytes of the current segment
+         em.createNativeQuery(UPDATE_LOCATION)
+               .setParameter(1, copy.getSegmentId())
+               .setParameter(2, copy.getSegmentOffset())
+               .setParameter(3, ((Number) columns[0]).longValue())
+               .setParameter(4, segmentId)
+               .executeUpdate();
+      }
+   }
+
+   /**
+    * Finds a chunk, with its content even if it is stored in a segment file. Such a chunk is detached.
+    */
+   @Override
+   public ChunkEntity find(Long id) {
+      return load(super.find(id));
+   }
+
+   /**
+    * Stores a chunk, sending its content to the database as it is read from the stream instead of holding it in
+    * memory. The chunk is detached once stored.
+    *
+    * @param data the content of the chunk
+    * @param size the number of bytes of the chunk, the chunk is smaller if the stream ends before
+    * @return the chunk, with the number of bytes actually stored
+    */
+   public ChunkEntity createStreamed(InputStream data, int size) throws IOException {
+      EntityManager em = entityManager.get();
+      if (fileStore.isEnabled()) {
+         ChunkEntity chunk = new ChunkEntity(null, size);
+         fileStore.write(chunk, data, size);
+         create(chunk);
+         em.flush();
+         em.detach(chunk);
+         return chunk;
+      }
+      ChunkEntity chunk = create(new ChunkEntity(null, size));
+      em.flush();
+      em.detach(chunk);
+      CountingInputStream in = new CountingInputStream(data);
+      try {
+         PreparedStatement statement = connection(em).prepareStatement(UPDATE_DATA);
+         try {
+            statement.setBinaryStream(1, in, size);
+            statement.setLong(2, chunk.getId());
+            statement.executeUpdate();
+         } finally {
+            statement.close();
+         }
+         if (in.getCount() != size) {
+            chunk.setSize((int) in.getCount());
+            statement = connection(em).prepareStatement(UPDATE_SIZE);
+            try {
+               statement.setInt(1, chunk.getSize());
+               statement.setLong(2, chunk.getId());
+               statement.executeUpdate();
+            } finally {
+               statement.close();
+            }
+         }
+      } catch (SQLException e) {
+         throw new IOException("Could not store chunk", e);
+      }
+      return chunk;
+   }
+
+   /**
+    * Opens a stream over the content of a range of chunks of a payload that reads them from the database as they
+    * are consumed, without holding a whole chunk in memory. The stream looks up each chunk in a short transaction
+    * of its own, holding a database connection only while a chunk stored in the database is read.
+    *
+    * @param firstChunk the position of the first chunk to read
+    * @param lastChunk the position after the last chunk to read
+    */
+   public InputStream openStream(Long payloadId, int firstChunk, int lastChunk) {
+      return new ChunkInputStream(entityManagerFactory.get(), fileStore, payloadId, firstChunk, lastChunk);
+   }
+
+   /**
+    * Transfers a range of the content of the chunk at a position of a payload to a channel. The bytes of chunks
+    * stored in segment files are copied by the operating system where the channel allows it, without going through
+    * the heap.
+    *
+    * @param from the offset of the range in the chunk
+    * @param count the number of bytes of the range, no more than the chunk holds after the offset
+    * @return false if the payload has no chunk at this position
+    */
+   public boolean transferTo(Long payloadId, int position, long from, long count, WritableByteChannel target)
+         throws IOException {
+      List<?> locations = entityManager.get().createNativeQuery(SELECT_LOCATION)
+            .setParameter(1, payloadId)
+            .setParameter(2, position)
+            .getResultList();
+      if (locations.isEmpty()) {
+         return false;
+      }
+      Object[] location = (Object[]) locations.get(0);
+      if (location[0] != null) {
+         fileStore.transferTo(((Number) location[0]).intValue(), ((Number) location[1]).longValue(), from, count,
+               target);
+         return true;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(findChunk(payloadId, position).getData(), (int) from, (int) count);
+      while (buffer.hasRemaining()) {
+         target.write(buffer);
+      }
+      return true;
+   }
+
+   /**
+    * Finds the chunk at a position of a payload, joining the ordered chunk list on its index instead of loading
+    * it. JPQL can not address positions of a list of basic values on every provider, so the query is native.
+    *
+    * @return the chunk, or null if the payload has no chunk at this position
+    */
+   @SuppressWarnings("unchecked")
+   public ChunkEntity findChunk(Long payloadId, int position) {
+      List<ChunkEntity> chunks = entityManager.get().createNativeQuery(SELECT_CHUNK, ChunkEntity.class)
+            .setParameter(1, payloadId)
+            .setParameter(2, position)
+            .getResultList();
+      return chunks.isEmpty() ? null : load(chunks.get(0));
+   }
+
+   /**
+    * Counts the chunks of a payload.
+    */
+   public int countChunks(Long payloadId) {
+      return entityManager.get().createQuery("SELECT COUNT(chunkId) FROM " + PayloadEntity.class.getName()
+            + " p JOIN p.chunks chunkId WHERE p.id = :payloadId", Long.class)
+            .setParameter("payloadId", payloadId)
+            .getSingleResult().intValue();
+   }
+
+   /**
+    * Finds a chunk with the given content hash and size.
+    *
+    * @return the id of the chunk, or null if there is none
+    */
+   public Long findChunkIdByHash(String hash, int size) {
+      List<Long> ids = entityManager.get().createQuery("SELECT c.id FROM " + entityClass.getName() + " c "
+            + "WHERE c.hash = :hash AND c.size = :size", Long.class)
+            .setParameter("hash", hash)
+            .setParameter("size", size)
+            .setMaxResults(1)
+            .getResultList();
+      return ids.isEmpty() ? null : ids.get(0);
+   }
+
+   /**
+    * Reads the content of a chunk stored in a segment file, detaching the chunk first so that the content is
+    * never written to its LOB column.
+    */
+   private ChunkEntity load(ChunkEntity chunk) {
+      if (chunk == null || chunk.getSegmentId() == null || chunk.getData() != null) {
+         return chunk;
+      }
+      entityManager.get().detach(chunk);
+      try {
+         chunk.setData(fileStore.read(chunk));
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+      return chunk;
+   }
+
+   /**
+    * Adds a reference to a chunk.
+    *
+    * @return false if the chunk no longer exists
+    */
+   public boolean retainChunk(Long id) {
+      return entityManager.get().createQuery("UPDATE " + entityClass.getName() + " c "
+            + "SET c.refCount = c.refCount + 1 WHERE c.id = :id AND c.refCount IS NOT NULL")
+            .setParameter("id", id)
+            .executeUpdate() > 0;
+   }
+
+   /**
+    * Adds references to chunks. Chunks stored without a reference count are referenced once.
+    *
+    * @param ids the chunks to retain, referenced count more times each
+    */
+   public void retainChunks(List<Long> ids, int count) {
+      entityManager.get().createQuery("UPDATE " + entityClass.getName() + " c "
+            + "SET c.refCount = COALESCE(c.refCount, 1) + :count WHERE c.id IN :ids")
+            .setParameter("count", count)
+            .setParameter("ids", ids)
+            .executeUpdate();
+   }
+
+   /**
+    * Removes references to chunks, deleting the chunks that are no longer referenced.
+    *
+    * @param ids the chunks to release, referenced count times each
+    */
+   public void releaseChunks(List<Long> ids, int count) {
+      EntityManager em = entityManager.get();
+      em.createQuery("UPDATE " + entityClass.getName() + " c SET c.refCount = c.refCount - :count "
+            + "WHERE c.id IN :ids")
+            .setParameter("count", count)
+            .setParameter("ids", ids)
+            .executeUpdate();
+      em.createQuery("DELETE FROM " + entityClass.getName() + " c "
+            + "WHERE c.id IN :ids AND (c.refCount IS NULL OR c.refCount <= 0)")
+            .setParameter("ids", ids)
+            .executeUpdate();
    }
 
 }
@@ -43,6 +43,15 @@ public class ContainerRepository extends GenericRepository<ContainerEntity, Long
       }
    }
 
+   public Long findContainerIdByName(String name) {
+      List<Long> ids = entityManager.get().createQuery("SELECT c.id FROM " + entityClass.getName()
+            + " c WHERE c.name = :name", Long.class)
+            .setParameter("name", name)
+            .setMaxResults(1)
+            .getResultList();
+      return ids.isEmpty() ? null : ids.get(0);
+   }
+
    public List<ContainerEntity> findAllContainers() {
       return entityManager.get().createQuery("SELECT c FROM " + entityClass.getName() + " c", entityClass)
             .getResultList();
@@ -20,8 +20,10 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
+import java.sql.Connection;
 
 public abstract class GenericRepository<T, PK extends Serializable> {
 
@@ -44,6 +46,10 @@ public abstract class GenericRepository<T, PK extends Serializable> {
       return entityManager.get().find(entityClass, id);
    }
 
+   public T getReference(PK id) {
+      return entityManager.get().getReference(entityClass, id);
+   }
+
    public T save(T entity) {
       return entityManager.get().merge(entity);
    }
@@ -52,4 +58,34 @@ public abstract class GenericRepository<T, PK extends Serializable> {
       entityManager.get().remove(entity);
    }
 
+   public boolean contains(T entity) {
+      return entityManager.get().contains(entity);
+   }
+
+   public void detach(T entity) {
+      entityManager.get().detach(entity);
+   }
+
+   public void flush() {
+      entityManager.get().flush();
+   }
+
+   /**
+    * Gets the JDBC connection of an entity manager, taking part in its current transaction.
+    *
+    * @throws PersistenceException if the provider neither unwraps connections nor is Hibernate
+    */
+   protected static Connection connection(EntityManager entityManager) {
+      try {
+         return entityManager.unwrap(Connection.class);
+      } catch (PersistenceException e) {
+         // Hibernate does not unwrap connections, its session hands out the one of the transaction
+         if (HibernateConnections.isHibernate(entityManager)) {
+            return HibernateConnections.connection(entityManager);
+         }
+         throw new PersistenceException("Could not get the JDBC connection of entity manager "
+               + entityManager.getClass().getName() + ", its provider must unwrap " + Connection.class.getName(), e);
+      }
+   }
+
 }
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.repository;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+
+/**
+ * Gets the JDBC connection of a Hibernate session. Hibernate is an optional dependency, this class is only loaded
+ * once the entity manager is known to be a Hibernate one.
+ */
+final class HibernateConnections {
+
+   private static final String SESSION_CLASS = "org.hibernate.Session";
+
+   private HibernateConnections() {
+   }
+
+   static boolean isHibernate(EntityManager entityManager) {
+      try {
+         Class<?> session = Class.forName(SESSION_CLASS, false, entityManager.getClass().getClassLoader());
+         return session.isInstance(entityManager.getDelegate());
+      } catch (ClassNotFoundException e) {
+         return false;
+      }
+   }
+
+   static Connection connection(EntityManager entityManager) {
+      return entityManager.unwrap(Session.class).doReturningWork(new ReturningWork<Connection>() {
+         @Override
+         public Connection execute(Connection connection) {
+            return connection;
+         }
+      });
+   }
+
+}
@@ -16,17 +16,35 @@
  */
 package org.jclouds.jdbc.service;
 
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingInputStream;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.persist.Transactional;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.ContainerAccess;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.io.ContentMetadata;
+import org.jclouds.jdbc.conversion.BlobMetadataRows;
 import org.jclouds.jdbc.conversion.BlobToBlobEntity;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.BlobEntityPK;
@@ -39,12 +57,21 @@ import org.jclouds.jdbc.repository.ChunkRepository;
 import org.jclouds.jdbc.repository.ContainerRepository;
 import org.jclouds.util.Closeables2;
 
+import javax.inject.Named;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.io.BaseEncoding.base16;
 
 @Singleton
@@ -52,26 +79,98 @@ public class JdbcService {
 
    private static final String DIRECTORY_MD5 = Hashing.md5().hashBytes(new byte[0]).toString();
 
+   // Containers deleted and created again by another process are seen after this delay at most
+   private static final long CONTAINER_ID_EXPIRY_SECONDS = 60;
+
+   // Rough size in bytes of cached blob metadata besides its strings
+   private static final int METADATA_OVERHEAD = 512;
+
    private final ContainerRepository containerRepository;
    private final BlobRepository blobRepository;
    private final ChunkRepository chunkRepository;
    private final BlobToBlobEntity blobToBlobEntity;
+   private final int chunkSize;
+   private final int inlineThreshold;
+   private final int chunkBatchSize;
+   private final long chunkFlushIntervalNanos;
+   private final boolean chunkDedup;
+   private final boolean chunkStreaming;
+   private final int deleteBatchSize;
+   private final Cache<String, Long> containerIds = CacheBuilder.newBuilder()
+         .expireAfterWrite(CONTAINER_ID_EXPIRY_SECONDS, TimeUnit.SECONDS)
+         .build();
+   // Incremented when a container is created or deleted and again once it is committed, ids read meanwhile are not
+   // cached
+   private final AtomicLong containerChanges = new AtomicLong();
+   private final Cache<BlobEntityPK, MutableBlobMetadata> blobMetadata;
+   // Incremented on every change and again once it is committed, so that metadata read meanwhile is not cached
+   private final AtomicLong blobChanges = new AtomicLong();
+   // Blobs and containers changed by the transaction of the current thread, invalidated again after it ends
+   private final ThreadLocal<Set<BlobEntityPK>> changedBlobs = new ThreadLocal<Set<BlobEntityPK>>() {
+      @Override
+      protected Set<BlobEntityPK> initialValue() {
+         return Sets.newHashSet();
+      }
+   };
+   private final ThreadLocal<Set<Long>> changedContainers = new ThreadLocal<Set<Long>>() {
+      @Override
+      protected Set<Long> initialValue() {
+         return Sets.newHashSet();
+      }
+   };
 
    @Inject
    JdbcService(ContainerRepository containerRepository, BlobRepository blobRepository, ChunkRepository chunkRepository,
-         BlobToBlobEntity blobToBlobEntity) {
+         BlobToBlobEntity blobToBlobEntity, @Named(JdbcConstants.PROPERTY_CHUNK_SIZE) int chunkSize,
+         @Named(JdbcConstants.PROPERTY_INLINE_THRESHOLD) int inlineThreshold,
+         @Named(JdbcConstants.PROPERTY_CHUNK_BATCH_SIZE) int chunkBatchSize,
+         @Named(JdbcConstants.PROPERTY_CHUNK_FLUSH_INTERVAL) long chunkFlushInterval,
+         @Named(JdbcConstants.PROPERTY_CHUNK_DEDUP) boolean chunkDedup,
+         @Named(JdbcConstants.PROPERTY_CHUNK_STREAMING) boolean chunkStreaming,
+         @Named(JdbcConstants.PROPERTY_DELETE_BATCH_SIZE) int deleteBatchSize,
+         @Named(JdbcConstants.PROPERTY_METADATA_CACHE_SIZE) long metadataCacheSize,
+         @Named(JdbcConstants.PROPERTY_METADATA_CACHE_EXPIRY) long metadataCacheExpiry) {
       this.containerRepository = containerRepository;
       this.blobRepository = blobRepository;
       this.chunkRepository = chunkRepository;
       this.blobToBlobEntity = blobToBlobEntity;
+      this.chunkSize = checkChunkSize(chunkSize);
+      checkArgument(inlineThreshold >= 0 && inlineThreshold <= JdbcConstants.MAX_INLINE_THRESHOLD,
+            "inline threshold must be between 0 and %s bytes, was %s", JdbcConstants.MAX_INLINE_THRESHOLD,
+            inlineThreshold);
+      this.inlineThreshold = inlineThreshold;
+      this.chunkBatchSize = Math.max(1, chunkBatchSize);
+      this.chunkFlushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(chunkFlushInterval);
+      this.chunkDedup = chunkDedup;
+      this.chunkStreaming = chunkStreaming;
+      this.deleteBatchSize = Math.max(1, deleteBatchSize);
+      this.blobMetadata = metadataCacheSize <= 0 ? null : CacheBuilder.newBuilder()
+            .maximumWeight(metadataCacheSize)
+            .weigher(new Weigher<BlobEntityPK, MutableBlobMetadata>() {
+               @Override
+               public int weigh(BlobEntityPK key, MutableBlobMetadata metadata) {
+                  return estimateSize(metadata);
+               }
+            })
+            .expireAfterWrite(metadataCacheExpiry, TimeUnit.MILLISECONDS)
+            .<BlobEntityPK, MutableBlobMetadata>build();
    }
 
-   @Transactional
    public void createContainer(String containerName, ContainerAccess access) {
-      containerRepository.create(ContainerEntity.builder().name(containerName).containerAccess(access).build());
+      try {
+         storeContainer(containerName, access);
+      } finally {
+         invalidateContainerId(containerName);
+      }
    }
 
+   // Not private so that the transaction is intercepted, it commits before the cached id is invalidated again
    @Transactional
+   void storeContainer(String containerName, ContainerAccess access) {
+      invalidateContainerId(containerName);
+      containerRepository.create(ContainerEntity.builder().name(containerName).containerAccess(access).build());
+   }
+
    public void createContainer(String containerName) {
       createContainer(containerName, null);
    }
@@ -83,32 +182,220 @@ public class JdbcService {
 
    @Transactional
    public ContainerEntity findContainerByName(String containerName) {
-      return containerRepository.findContainerByName(containerName);
+      Long containerId = findContainerId(containerName);
+      if (containerId == null) {
+         return null;
+      }
+      ContainerEntity containerEntity = containerRepository.find(containerId);
+      if (containerEntity == null) {
+         // Deleted since its id was cached, it may have been created again with another id
+         containerIds.invalidate(containerName);
+         containerId = findContainerId(containerName);
+         containerEntity = containerId == null ? null : containerRepository.find(containerId);
+      }
+      return containerEntity;
    }
 
    @Transactional
+   public boolean containerExists(String containerName) {
+      return findContainerId(containerName) != null;
+   }
+
    public void deleteContainerByName(String containerName) {
+      try {
+         removeContainer(containerName);
+      } finally {
+         invalidateContainerId(containerName);
+         endBlobChanges();
+      }
+   }
+
+   // Not private so that the transaction is intercepted, it commits before the cached id and metadata are
+   // invalidated again
+   @Transactional
+   void removeContainer(String containerName) {
+      Long containerId = findContainerId(containerName);
+      if (containerId != null) {
+         invalidateBlobMetadata(containerId);
+      }
+      invalidateContainerId(containerName);
       containerRepository.deleteContainerByName(containerName);
    }
 
    @Transactional
    public void setContainerAccessByName(String containerName, ContainerAccess access) {
-      ContainerEntity containerEntity = containerRepository.findContainerByName(containerName);
+      ContainerEntity containerEntity = findContainerByName(containerName);
       containerEntity.setContainerAccess(access);
       containerRepository.save(containerEntity);
    }
 
+   @Transactional
+   public void setContainerChunkSizeByName(String containerName, Integer chunkSize) {
+      ContainerEntity containerEntity = findContainerByName(containerName);
+      containerEntity.setChunkSize(chunkSize == null ? null : checkChunkSize(chunkSize));
+      containerRepository.save(containerEntity);
+   }
+
+   /**
+    * Gets the size of the chunks new blobs in a container are split into.
+    *
+    * @return the chunk size, or null if the container does not exist
+    */
+   @Transactional
+   public Integer findContainerChunkSize(String containerName) {
+      ContainerEntity containerEntity = findContainerByName(containerName);
+      if (containerEntity == null) {
+         return null;
+      }
+      return containerEntity.getChunkSize() == null ? chunkSize : containerEntity.getChunkSize();
+   }
+
    @Transactional
    public boolean blobExists(String containerName, String key) {
-      return findBlobById(containerName, key) != null;
+      Long containerId = findContainerId(containerName);
+      return containerId != null && blobRepository.blobExists(containerId, key);
+   }
+
+   @Transactional
+   public String findContentType(String containerName, String key) {
+      Long containerId = findContainerId(containerName);
+      return containerId == null ? null : blobRepository.findContentType(containerId, key);
+   }
+
+   @Transactional
+   public long countBlobs(String containerName, String from, String to, String separator) {
+      Long containerId = findContainerId(containerName);
+      return containerId == null ? 0 : blobRepository.countBlobs(containerId, from, to, separator);
+   }
+
+   @Transactional
+   public long countBlobsByParentPath(String containerName, String parentPath) {
+      Long containerId = findContainerId(containerName);
+      return containerId == null ? 0 : blobRepository.countBlobsByParentPath(containerId, parentPath);
    }
 
-   @Transactional(rollbackOn = IOException.class)
    public BlobEntity createOrModifyBlob(String containerName, Blob blob, BlobAccess blobAccess) throws IOException {
-      List<Long> chunks;
+      try {
+         return storeBlob(containerName, blob, blobAccess, true);
+      } finally {
+         chunkRepository.endChunkWrites();
+         endBlobChanges();
+      }
+   }
+
+   /**
+    * Stores a part of a multipart upload. Parts are always split in chunks, so that completing the upload can
+    * concatenate their chunks.
+    */
+   public BlobEntity createMultipartPart(String containerName, Blob blob) throws IOException {
+      try {
+         return storeBlob(containerName, blob, null, false);
+      } finally {
+         chunkRepository.endChunkWrites();
+         endBlobChanges();
+      }
+   }
+
+   /**
+    * Reclaims the space of chunk segment files no chunk refers to anymore, see
+    * {@link ChunkRepository#compactSegments()}. Does nothing when chunks are stored in the database.
+    *
+    * @return the number of bytes reclaimed
+    */
+   public long compactChunkSegments() throws IOException {
+      try {
+         return compactSegments();
+      } finally {
+         chunkRepository.endChunkWrites();
+      }
+   }
+
+   @Transactional(rollbackOn = IOException.class)
+   long compactSegments() throws IOException {
+      return chunkRepository.compactSegments();
+   }
+
+   /**
+    * Completes a multipart upload by concatenating the chunks of its parts without copying them. The parts are
+    * removed, their chunks now belong to the blob.
+    *
+    * @param blob the blob to create, only its name and metadata are used
+    * @param partKeys the keys of the blobs holding the parts, in order
+    * @return the blob, or null if the parts can not be concatenated because one of them other than the last
+    *       one does not end on a chunk boundary
+    */
+   public BlobEntity completeMultipartUpload(String containerName, Blob blob, List<String> partKeys) {
+      try {
+         return concatenateParts(containerName, blob, partKeys);
+      } finally {
+         endBlobChanges();
+      }
+   }
+
+   // Not private so that the transaction is intercepted, it commits before the cached metadata is invalidated again
+   @Transactional
+   BlobEntity concatenateParts(String containerName, Blob blob, List<String> partKeys) {
+      List<BlobEntity> parts = Lists.newArrayListWithCapacity(partKeys.size());
+      ImmutableList.Builder<Long> chunks = ImmutableList.builder();
+      Hasher partHashes = Hashing.md5().newHasher();
+      Integer blobChunkSize = null;
+      long contentLength = 0;
+      for (String partKey : partKeys) {
+         BlobEntity part = findBlobById(containerName, partKey);
+         checkArgument(part != null, "part %s not found", partKey);
+         PayloadEntity payload = part.getPayload();
+         // Every chunk but the last one of a payload is full, so the parts before this one must fill whole chunks
+         if (payload.getChunkSize() == null || (blobChunkSize != null && !blobChunkSize.equals(payload.getChunkSize()))
+               || contentLength % payload.getChunkSize() != 0) {
+            return null;
+         }
+         blobChunkSize = payload.getChunkSize();
+         chunks.addAll(payload.getChunks());
+         partHashes.putBytes(payload.getContentMD5());
+         contentLength += payload.getContentLength();
+         parts.add(part);
+      }
+      if (parts.isEmpty()) {
+         return null;
+      }
+      for (BlobEntity part : parts) {
+         invalidateBlobMetadata(part.getContainerEntity().getId(), part.getKey());
+         blobRepository.delete(part);
+      }
+
+      BlobEntity blobEntity = blobToBlobEntity.apply(blob);
+      blobEntity.getPayload().setChunks(chunks.build());
+      blobEntity.getPayload().setChunkSize(blobChunkSize);
+      blobEntity.getPayload().setContentMD5(null);
+      blobEntity.getPayload().setContentLength(contentLength);
+      blobEntity.setSize(contentLength);
+      // The MD5 of the whole content is unknown without reading it, the etag follows the multipart format of S3
+      blobEntity.setEtag(partHashes.hash() + "-" + parts.size());
+      return replaceBlob(containerRepository.getReference(findContainerId(containerName)), containerName,
+            blob.getMetadata().getName(), blobEntity);
+   }
+
+   // Not private so that the transaction is intercepted, it commits before the chunk writes end
+   @Transactional(rollbackOn = IOException.class)
+   BlobEntity storeBlob(String containerName, Blob blob, BlobAccess blobAccess, boolean allowInline)
+         throws IOException {
+      ContainerEntity containerEntity = findContainerByName(containerName);
+      int blobChunkSize = containerEntity.getChunkSize() == null ? chunkSize : containerEntity.getChunkSize();
+      Long contentLength = blob.getPayload().getContentMetadata().getContentLength();
+      List<Long> chunks = ImmutableList.of();
+      byte[] inlineData = null;
       HashingInputStream his = new HashingInputStream(Hashing.md5(), blob.getPayload().openStream());
+      CountingInputStream cis = new CountingInputStream(his);
       try {
-         chunks = storeData(his);
+         InputStream data = cis;
+         if (allowInline && inlineThreshold > 0 && (contentLength == null || contentLength <= inlineThreshold)) {
+            PushbackInputStream in = new PushbackInputStream(cis, inlineThreshold + 1);
+            inlineData = readInlineData(in);
+            data = in;
+         }
+         if (inlineData == null) {
+            chunks = storeData(data, contentLength, blobChunkSize);
+         }
       } finally {
          Closeables2.closeQuietly(his);
       }
@@ -119,54 +406,89 @@ public class JdbcService {
                " expected: " + expectedHashCode);
       }
 
-      String key = blob.getMetadata().getName();
-      Date creationDate = null;
-      BlobEntity oldBlobEntity = findBlobById(containerName, key);
-      if (oldBlobEntity != null) {
-         creationDate = oldBlobEntity.getCreationDate();
-      }
       BlobEntity blobEntity = blobToBlobEntity.apply(blob);
       blobEntity.getPayload().setChunks(chunks);
-      blobEntity.setContainerEntity(containerRepository.findContainerByName(containerName));
-      blobEntity.setKey(key);
+      blobEntity.getPayload().setChunkSize(inlineData == null ? blobChunkSize : null);
+      blobEntity.getPayload().setData(inlineData);
       blobEntity.setBlobAccess(blobAccess);
-      blobEntity.setCreationDate(creationDate);
-      blobEntity.setLastModified(new Date());
       blobEntity.setEtag(base16().lowerCase().encode(actualHashCode.asBytes()));
       blobEntity.getPayload().setContentMD5(actualHashCode.asBytes());
+      blobEntity.getPayload().setContentLength(cis.getCount());
+      blobEntity.setSize(cis.getCount());
+      return replaceBlob(containerEntity, containerName, blob.getMetadata().getName(), blobEntity);
+   }
 
-      BlobEntity result = blobRepository.save(blobEntity);
-      return result;
+   public BlobEntity createDirectoryBlob(String containerName, Blob blob, BlobAccess blobAccess) {
+      try {
+         return storeDirectoryBlob(containerName, blob, blobAccess);
+      } finally {
+         endBlobChanges();
+      }
    }
 
+   // Not private so that the transaction is intercepted, it commits before the cached metadata is invalidated again
    @Transactional
-   public BlobEntity createDirectoryBlob(String containerName, Blob blob, BlobAccess blobAccess) {
+   BlobEntity storeDirectoryBlob(String containerName, Blob blob, BlobAccess blobAccess) {
       BlobEntity blobEntity = BlobEntity.builder(null, null)
             .userMetadata(blob.getMetadata().getUserMetadata())
             .directory(true)
             .payload(PayloadEntity.builder().contentType("application/directory").build())
             .build();
-      blobEntity.setContainerEntity(containerRepository.findContainerByName(containerName));
+      blobEntity.setContainerEntity(containerRepository.getReference(findContainerId(containerName)));
       blobEntity.setKey(blob.getMetadata().getName());
       blobEntity.setBlobAccess(blobAccess);
       blobEntity.setEtag(DIRECTORY_MD5);
+      invalidateBlobMetadata(blobEntity.getContainerEntity().getId(), blobEntity.getKey());
       return blobRepository.save(blobEntity);
    }
 
-   @Transactional
    public BlobEntity createDirectoryBlob(String containerName, Blob blob) {
       return createDirectoryBlob(containerName, blob, null);
    }
 
-   @Transactional(rollbackOn = IOException.class)
    public BlobEntity createOrModifyBlob(String containerName, Blob blob) throws IOException {
       return createOrModifyBlob(containerName, blob, null);
    }
 
    @Transactional
    public BlobEntity findBlobById(String containerName, String key) {
-      ContainerEntity containerEntity = containerRepository.findContainerByName(containerName);
-      return containerEntity == null ? null : blobRepository.find(new BlobEntityPK(containerEntity.getId(), key));
+      Long containerId = findContainerId(containerName);
+      return containerId == null ? null : blobRepository.find(new BlobEntityPK(containerId, key));
+   }
+
+   /**
+    * Finds the metadata of a blob without loading its payload, from the metadata cache when it is enabled.
+    *
+    * @return a copy of the metadata, or null if the blob does not exist
+    */
+   public MutableBlobMetadata findBlobMetadata(String containerName, String key) {
+      // Counted before the transaction starts, whatever it reads was committed before this count or by a change
+      // counted after it
+      return findBlobMetadata(containerName, key, blobChanges.get());
+   }
+
+   // Not private so that the transaction is intercepted
+   @Transactional
+   MutableBlobMetadata findBlobMetadata(String containerName, String key, long changes) {
+      Long containerId = findContainerId(containerName);
+      if (containerId == null) {
+         return null;
+      }
+      BlobEntityPK id = new BlobEntityPK(containerId, key);
+      MutableBlobMetadata metadata = blobMetadata == null ? null : blobMetadata.getIfPresent(id);
+      if (metadata == null) {
+         Object[] row = blobRepository.findBlobMetadata(containerId, key);
+         if (row == null) {
+            return null;
+         }
+         metadata = BlobMetadataRows.toBlobMetadata(containerName, row);
+         Map<String, String> userMetadata = findUserMetadataByKeys(containerName, ImmutableList.of(key)).get(key);
+         metadata.setUserMetadata(userMetadata == null ? ImmutableMap.<String, String>of() : userMetadata);
+         if (blobMetadata != null && blobChanges.get() == changes) {
+            blobMetadata.put(id, metadata);
+         }
+      }
+      return new MutableBlobMetadataImpl(metadata);
    }
 
    @Transactional
@@ -175,86 +497,507 @@ public class JdbcService {
    }
 
    @Transactional
-   public List<BlobEntity> findBlobsByContainer(String containerName) {
-      return blobRepository.findBlobsByContainer(containerRepository.findContainerByName(containerName));
+   public ChunkEntity findChunk(Long payloadId, int position) {
+      return chunkRepository.findChunk(payloadId, position);
    }
 
    @Transactional
-   public List<BlobEntity> findBlobsByDirectory(String containerName, String directoryName, boolean recursive) {
-      ImmutableList.Builder<BlobEntity> result = ImmutableList.builder();
-      List<BlobEntity> blobEntities = blobRepository
-            .findBlobsByDirectory(containerRepository.findContainerByName(containerName), directoryName);
-      result.addAll(blobEntities);
-      if (recursive) {
-         for (BlobEntity blobEntity : blobEntities) {
-            if (blobEntity.isDirectory()) {
-               result.addAll(findBlobsByDirectory(containerName, blobEntity.getKey(), true));
-            }
-         }
+   public int countChunks(Long payloadId) {
+      return chunkRepository.countChunks(payloadId);
+   }
+
+   /**
+    * Finds the ids of the chunks of a blob, in order.
+    *
+    * @return the chunk ids, or null if the blob does not exist
+    */
+   @Transactional
+   public List<Long> findChunkIds(String containerName, String key) {
+      BlobEntity blobEntity = findBlobById(containerName, key);
+      return blobEntity == null ? null : ImmutableList.copyOf(blobEntity.getPayload().getChunks());
+   }
+
+   /**
+    * Opens a stream over the content of a range of chunks of a payload, see
+    * {@link ChunkRepository#openStream(Long, int, int)}.
+    */
+   public InputStream openChunkStream(Long payloadId, int firstChunk, int lastChunk) {
+      return chunkRepository.openStream(payloadId, firstChunk, lastChunk);
+   }
+
+   /**
+    * Whether the content of new chunks is stored in segment files instead of the database.
+    */
+   public boolean storesChunksInFiles() {
+      return chunkRepository.storesChunksInFiles();
+   }
+
+   /**
+    * Transfers a range of the content of a chunk of a payload to a channel, see
+    * {@link ChunkRepository#transferTo(Long, int, long, long, WritableByteChannel)}.
+    */
+   @Transactional
+   public boolean transferChunk(Long payloadId, int position, long from, long count, WritableByteChannel target)
+         throws IOException {
+      return chunkRepository.transferTo(payloadId, position, from, count, target);
+   }
+
+   @Transactional
+   public List<String> findBlobKeysByContainer(String containerName) {
+      Long containerId = findContainerId(containerName);
+      if (containerId == null) {
+         return ImmutableList.of();
       }
-      return result.build();
+      return blobRepository.findBlobKeysByContainer(containerRepository.getReference(containerId));
    }
 
    @Transactional
-   public void deleteBlobsByContainer(String containerName) {
-      List<BlobEntity> blobs = findBlobsByContainer(containerName);
-      for (BlobEntity blob : blobs) {
-         deleteBlob(containerName, blob.getKey());
+   public List<Object[]> findBlobMetadataPage(String containerName, String from, boolean fromInclusive, String to,
+         int maxResults) {
+      Long containerId = findContainerId(containerName);
+      if (containerId == null) {
+         return ImmutableList.of();
       }
+      return blobRepository.findBlobMetadataPage(containerId, from, fromInclusive, to, maxResults);
    }
 
    @Transactional
-   public void deleteBlobsByDirectory(String containerName, String directoryName, boolean recursive) {
-      List<BlobEntity> blobs = findBlobsByDirectory(containerName, directoryName, false);
-      for (BlobEntity blob : blobs) {
-         if (!blob.isDirectory()) {
-            deleteBlob(containerName, blob.getKey());
-         }
-         else {
-            if (recursive) {
-               deleteBlobsByDirectory(containerName, blob.getKey(), true);
-               deleteBlob(containerName, blob.getKey());
-            }
+   public List<Object[]> findBlobMetadataPage(String containerName, String parentPath, String from,
+         boolean fromInclusive, String to, int maxResults) {
+      Long containerId = findContainerId(containerName);
+      if (containerId == null) {
+         return ImmutableList.of();
+      }
+      return blobRepository.findBlobMetadataPage(containerId, parentPath, from, fromInclusive, to, maxResults);
+   }
+
+   @Transactional
+   public String findFirstParentPath(String containerName, String from, boolean fromInclusive, String to) {
+      Long containerId = findContainerId(containerName);
+      return containerId == null ? null : blobRepository.findFirstParentPath(containerId, from, fromInclusive, to);
+   }
+
+   @Transactional
+   public boolean hasBlobsWithoutParentPath(String containerName) {
+      Long containerId = findContainerId(containerName);
+      return containerId != null && blobRepository.hasBlobsWithoutParentPath(containerId);
+   }
+
+   @Transactional
+   public Map<String, Map<String, String>> findUserMetadataByKeys(String containerName, Collection<String> keys) {
+      Map<String, Map<String, String>> result = Maps.newHashMap();
+      Long containerId = findContainerId(containerName);
+      if (keys.isEmpty() || containerId == null) {
+         return result;
+      }
+      for (Object[] row : blobRepository.findUserMetadataByKeys(containerId, keys)) {
+         Map<String, String> userMetadata = result.get(row[0]);
+         if (userMetadata == null) {
+            userMetadata = Maps.newHashMap();
+            result.put((String) row[0], userMetadata);
          }
+         userMetadata.put((String) row[1], (String) row[2]);
+      }
+      return result;
+   }
+
+   /**
+    * Deletes the first batch of blobs of a container in a key range. Each batch is deleted in its own
+    * transaction with a few bulk statements, so callers loop until nothing is left to delete.
+    *
+    * @param from the inclusive lower bound of the keys, or null to start from the first key
+    * @param to the exclusive upper bound of the keys, or null to delete up to the last key
+    * @param includeDirectories whether directory blobs in the range are deleted
+    * @return the number of blobs deleted
+    */
+   public int deleteBlobBatch(String containerName, String from, String to, boolean includeDirectories) {
+      try {
+         return removeBlobBatch(containerName, from, to, includeDirectories);
+      } finally {
+         endBlobChanges();
       }
    }
 
+   // Not private so that the transaction is intercepted, it commits before the cached metadata is invalidated again
    @Transactional
+   int removeBlobBatch(String containerName, String from, String to, boolean includeDirectories) {
+      Long containerId = findContainerId(containerName);
+      if (containerId == null) {
+         return 0;
+      }
+      ContainerEntity containerEntity = containerRepository.getReference(containerId);
+      List<String> keys = blobRepository.findBlobKeysInRange(containerEntity, from, to, includeDirectories,
+            deleteBatchSize);
+      if (keys.isEmpty()) {
+         return 0;
+      }
+      for (String key : keys) {
+         invalidateBlobMetadata(containerId, key);
+      }
+      return blobRepository.deleteBlobsInRange(containerEntity, keys.get(0), keys.get(keys.size() - 1),
+            includeDirectories);
+   }
+
    public void deleteBlob(String containerName, String key) {
+      try {
+         removeBlob(containerName, key);
+      } finally {
+         endBlobChanges();
+      }
+   }
+
+   // Not private so that the transaction is intercepted, it commits before the cached metadata is invalidated again
+   @Transactional
+   void removeBlob(String containerName, String key) {
       BlobEntity blobEntity = findBlobById(containerName, key);
       if (blobEntity != null) {
+         invalidateBlobMetadata(blobEntity.getContainerEntity().getId(), key);
          deleteChunks(blobEntity.getPayload().getChunks());
          blobRepository.delete(blobEntity);
       }
    }
 
-   @Transactional
    public void setBlobAccessById(String containerName, String key, BlobAccess access) {
+      try {
+         storeBlobAccess(containerName, key, access);
+      } finally {
+         endBlobChanges();
+      }
+   }
+
+   // Not private so that the transaction is intercepted, it commits before the cached metadata is invalidated again
+   @Transactional
+   void storeBlobAccess(String containerName, String key, BlobAccess access) {
       BlobEntity blobEntity = findBlobById(containerName, key);
+      invalidateBlobMetadata(blobEntity.getContainerEntity().getId(), key);
       blobEntity.setBlobAccess(access);
       blobRepository.save(blobEntity);
    }
 
+   /**
+    * Copies a blob without reading its content, the copy references the chunks of the source blob.
+    *
+    * @param contentMetadata the content metadata of the copy, or null to keep the one of the source blob
+    * @param userMetadata the user metadata of the copy, or null to keep the one of the source blob
+    * @return the copy, or null if the source blob does not exist
+    */
+   public BlobEntity copyBlob(String fromContainer, String fromKey, String toContainer, String toKey,
+         ContentMetadata contentMetadata, Map<String, String> userMetadata) {
+      try {
+         return storeBlobCopy(fromContainer, fromKey, toContainer, toKey, contentMetadata, userMetadata);
+      } finally {
+         endBlobChanges();
+      }
+   }
+
+   // Not private so that the transaction is intercepted, it commits before the cached metadata is invalidated again
+   @Transactional
+   BlobEntity storeBlobCopy(String fromContainer, String fromKey, String toContainer, String toKey,
+         ContentMetadata contentMetadata, Map<String, String> userMetadata) {
+      BlobEntity source = findBlobById(fromContainer, fromKey);
+      if (source == null) {
+         return null;
+      }
+      PayloadEntity sourcePayload = source.getPayload();
+      List<Long> chunks = ImmutableList.copyOf(sourcePayload.getChunks());
+      PayloadEntity.Builder payload = PayloadEntity.builder()
+            .chunks(chunks)
+            .chunkSize(sourcePayload.getChunkSize())
+            .data(sourcePayload.getData())
+            .contentLength(sourcePayload.getContentLength())
+            .contentMD5(sourcePayload.getContentMD5());
+      if (contentMetadata != null) {
+         payload.cacheControl(contentMetadata.getCacheControl())
+               .contentDisposition(contentMetadata.getContentDisposition())
+               .contentEncoding(contentMetadata.getContentEncoding())
+               .contentLanguage(contentMetadata.getContentLanguage())
+               .contentType(contentMetadata.getContentType())
+               .expires(contentMetadata.getExpires());
+      } else {
+         payload.cacheControl(sourcePayload.getCacheControl())
+               .contentDisposition(sourcePayload.getContentDisposition())
+               .contentEncoding(sourcePayload.getContentEncoding())
+               .contentLanguage(sourcePayload.getContentLanguage())
+               .contentType(sourcePayload.getContentType())
+               .expires(sourcePayload.getExpires());
+      }
+      BlobEntity blobEntity = BlobEntity.builder(null, null)
+            .payload(payload.build())
+            .userMetadata(Maps.newHashMap(userMetadata != null ? userMetadata : source.getUserMetadata()))
+            .size(source.getSize())
+            .etag(source.getEtag())
+            .directory(source.isDirectory())
+            .blobAccess(BlobAccess.PRIVATE)
+            .build();
+
+      for (Map.Entry<Integer, Collection<Long>> entry : chunksByReferenceCount(chunks).asMap().entrySet()) {
+         for (List<Long> batch : Lists.partition(ImmutableList.copyOf(entry.getValue()), deleteBatchSize)) {
+            chunkRepository.retainChunks(batch, entry.getKey());
+         }
+      }
+      return replaceBlob(containerRepository.getReference(findContainerId(toContainer)), toContainer, toKey,
+            blobEntity);
+   }
+
+   /**
+    * Saves a blob in place of the blob with the same key, if any. The chunks of the new blob must be stored or
+    * retained already, so that chunks shared with the replaced blob are never released to zero. The new blob
+    * always gets a new payload, so that streams still reading the replaced one find no more chunks at its id
+    * instead of reading those of the new one.
+    */
+   private BlobEntity replaceBlob(ContainerEntity containerEntity, String containerName, String key,
+         BlobEntity blobEntity) {
+      Date creationDate = null;
+      PayloadEntity oldPayload = null;
+      invalidateBlobMetadata(containerEntity.getId(), key);
+      BlobEntity oldBlobEntity = findBlobById(containerName, key);
+      if (oldBlobEntity != null) {
+         creationDate = oldBlobEntity.getCreationDate();
+         oldPayload = oldBlobEntity.getPayload();
+         deleteChunks(oldPayload.getChunks());
+      }
+      blobEntity.getPayload().setId(null);
+      blobEntity.setContainerEntity(containerEntity);
+      blobEntity.setKey(key);
+      blobEntity.setCreationDate(creationDate);
+      blobEntity.setLastModified(new Date());
+      if (blobEntity.getBlobAccess() == null) {
+         // A replacement is merged, the defaults of a persisted blob do not apply to it
+         blobEntity.setBlobAccess(BlobAccess.PRIVATE);
+      }
+      BlobEntity savedBlobEntity = blobRepository.save(blobEntity);
+      if (oldPayload != null) {
+         blobRepository.deletePayload(oldPayload);
+      }
+      return savedBlobEntity;
+   }
+
    @Transactional
    private void deleteChunks(List<Long> chunkIds) {
-      for (Long chunkId : chunkIds) {
-         chunkRepository.delete(chunkRepository.find(chunkId));
+      for (Map.Entry<Integer, Collection<Long>> entry : chunksByReferenceCount(chunkIds).asMap().entrySet()) {
+         for (List<Long> batch : Lists.partition(ImmutableList.copyOf(entry.getValue()), deleteBatchSize)) {
+            chunkRepository.releaseChunks(batch, entry.getKey());
+         }
       }
    }
 
+   /**
+    * Groups the chunks of a payload by the number of times they appear in it. A deduplicated chunk can appear
+    * several times in a payload, it is retained and released once per occurrence.
+    */
+   private static Multimap<Integer, Long> chunksByReferenceCount(List<Long> chunkIds) {
+      Multiset<Long> references = HashMultiset.create(chunkIds);
+      Multimap<Integer, Long> chunksByCount = ArrayListMultimap.create();
+      for (Multiset.Entry<Long> reference : references.entrySet()) {
+         chunksByCount.put(reference.getCount(), reference.getElement());
+      }
+      return chunksByCount;
+   }
+
+   /**
+    * Invalidates the cached metadata of a blob the current transaction changes. The metadata is invalidated again by
+    * {@link #endBlobChanges()} once the transaction ends, readers may cache the committed metadata meanwhile.
+    */
+   private void invalidateBlobMetadata(Long containerId, String key) {
+      blobChanges.incrementAndGet();
+      if (blobMetadata != null) {
+         BlobEntityPK id = new BlobEntityPK(containerId, key);
+         blobMetadata.invalidate(id);
+         changedBlobs.get().add(id);
+      }
+   }
+
+   private void invalidateBlobMetadata(Long containerId) {
+      blobChanges.incrementAndGet();
+      if (blobMetadata != null) {
+         invalidateContainerMetadata(containerId);
+         changedContainers.get().add(containerId);
+      }
+   }
+
+   private void invalidateContainerMetadata(Long containerId) {
+      for (BlobEntityPK id : blobMetadata.asMap().keySet()) {
+         if (containerId.equals(id.getContainerEntity())) {
+            blobMetadata.invalidate(id);
+         }
+      }
+   }
+
+   /**
+    * Invalidates again the metadata the transaction of the current thread changed, once it has committed or rolled
+    * back. A reader that counted the changes before the commit may have cached the metadata committed before it.
+    */
+   private void endBlobChanges() {
+      Set<BlobEntityPK> blobs = changedBlobs.get();
+      Set<Long> containers = changedContainers.get();
+      if (blobs.isEmpty() && containers.isEmpty()) {
+         return;
+      }
+      blobChanges.incrementAndGet();
+      blobMetadata.invalidateAll(blobs);
+      for (Long containerId : containers) {
+         invalidateContainerMetadata(containerId);
+      }
+      blobs.clear();
+      containers.clear();
+   }
+
+   /**
+    * Estimates the memory used by blob metadata from the length of its strings.
+    */
+   private static int estimateSize(MutableBlobMetadata metadata) {
+      long chars = metadata.getName().length() + Strings.nullToEmpty(metadata.getETag()).length()
+            + Strings.nullToEmpty(metadata.getContentMetadata().getContentType()).length()
+            + Strings.nullToEmpty(metadata.getContentMetadata().getContentDisposition()).length()
+            + Strings.nullToEmpty(metadata.getContentMetadata().getCacheControl()).length();
+      for (Map.Entry<String, String> entry : metadata.getUserMetadata().entrySet()) {
+         chars += entry.getKey().length() + Strings.nullToEmpty(entry.getValue()).length();
+      }
+      return (int) Math.min(Integer.MAX_VALUE, METADATA_OVERHEAD + 2 * chars);
+   }
+
+   /**
+    * Gets the id of a container, looking it up in the database only if it is not cached yet.
+    *
+    * @return the id of the container, or null if the container does not exist
+    */
+   private Long findContainerId(String containerName) {
+      Long containerId = containerIds.getIfPresent(containerName);
+      if (containerId == null) {
+         long changes = containerChanges.get();
+         containerId = containerRepository.findContainerIdByName(containerName);
+         if (containerId != null && containerChanges.get() == changes) {
+            containerIds.put(containerName, containerId);
+         }
+      }
+      return containerId;
+   }
+
+   /**
+    * Invalidates the cached id of a container that is created or deleted, once while its transaction runs and once
+    * after it ends.
+    */
+   private void invalidateContainerId(String containerName) {
+      containerChanges.incrementAndGet();
+      containerIds.invalidate(containerName);
+   }
+
+   /**
+    * Reads the whole stream if it fits in the inline threshold, otherwise pushes back what was read.
+    *
+    * @return the content of the stream, or null if it is too large to be stored inline
+    */
+   private byte[] readInlineData(PushbackInputStream in) throws IOException {
+      byte[] buffer = new byte[inlineThreshold + 1];
+      int bytes = ByteStreams.read(in, buffer, 0, buffer.length);
+      if (bytes > inlineThreshold) {
+         in.unread(buffer, 0, bytes);
+         return null;
+      }
+      return Arrays.copyOf(buffer, bytes);
+   }
+
    @Transactional(rollbackOn = IOException.class)
-   private List<Long> storeData(InputStream data) throws IOException {
+   private List<Long> storeData(InputStream data, Long contentLength, int chunkSize) throws IOException {
       ImmutableList.Builder<Long> chunks = ImmutableList.builder();
+      List<ChunkEntity> batch = Lists.newArrayListWithCapacity(chunkBatchSize);
+      Map<String, ChunkEntity> batchByHash = Maps.newHashMap();
+      byte[][] buffers = new byte[chunkBatchSize][];
+      PushbackInputStream in = new PushbackInputStream(data);
+      long remaining = contentLength == null ? -1 : contentLength;
+      long lastFlush = System.nanoTime();
       while (true) {
-         byte[] buffer = new byte[JdbcConstants.DEFAULT_CHUNK_SIZE];
-         int bytes = ByteStreams.read(data, buffer, 0, JdbcConstants.DEFAULT_CHUNK_SIZE);
+         if (remaining == 0) {
+            int b = in.read();
+            if (b == -1) {
+               break;
+            }
+            // The payload is longer than announced, keep reading with full size chunks
+            in.unread(b);
+            remaining = -1;
+         }
+         if (chunkStreaming && !chunkDedup && remaining > 0) {
+            // Pending chunks come first in the payload, they are flushed to keep the chunk order
+            flushChunks(batch, batchByHash, chunks);
+            int size = (int) Math.min(remaining, chunkSize);
+            ChunkEntity chunk = chunkRepository.createStreamed(ByteStreams.limit(in, size), size);
+            chunks.add(chunk.getId());
+            // A payload shorter than announced ends with this chunk
+            remaining = chunk.getSize() < size ? 0 : remaining - size;
+            continue;
+         }
+         // Full chunks reuse the buffers of the previous batch once it has been flushed and detached, the last
+         // chunk of a blob with a known length is read into an array of its exact size
+         byte[] buffer;
+         if (remaining > 0 && remaining < chunkSize) {
+            buffer = new byte[(int) remaining];
+         } else {
+            if (buffers[batch.size()] == null) {
+               buffers[batch.size()] = new byte[chunkSize];
+            }
+            buffer = buffers[batch.size()];
+         }
+         int bytes = ByteStreams.read(in, buffer, 0, buffer.length);
          if (bytes == 0) {
             break;
          } else if (bytes != buffer.length) {
             buffer = Arrays.copyOf(buffer, bytes);
          }
-         chunks.add(chunkRepository.create(new ChunkEntity(buffer, bytes)).getId());
+         if (remaining > 0) {
+            remaining -= bytes;
+         }
+         if (!chunkDedup) {
+            batch.add(chunkRepository.create(buffer, bytes, null));
+         } else {
+            String hash = Hashing.sha256().hashBytes(buffer, 0, bytes).toString();
+            ChunkEntity pending = batchByHash.get(hash);
+            Long existing = pending == null ? chunkRepository.findChunkIdByHash(hash, bytes) : null;
+            if (pending != null) {
+               // The buffer of this position is left unused, the pending chunk keeps its own
+               pending.setRefCount(pending.getRefCount() + 1);
+               batch.add(pending);
+            } else if (existing != null && chunkRepository.retainChunk(existing)) {
+               // Pending chunks come first in the payload, they are flushed to keep the chunk order
+               flushChunks(batch, batchByHash, chunks);
+               chunks.add(existing);
+               continue;
+            } else {
+               ChunkEntity chunk = chunkRepository.create(buffer, bytes, hash);
+               batchByHash.put(hash, chunk);
+               batch.add(chunk);
+            }
+         }
+         if (batch.size() == chunkBatchSize || System.nanoTime() - lastFlush >= chunkFlushIntervalNanos) {
+            flushChunks(batch, batchByHash, chunks);
+            lastFlush = System.nanoTime();
+         }
       }
+      flushChunks(batch, batchByHash, chunks);
+      chunkRepository.syncChunks();
       return chunks.build();
    }
+
+   private void flushChunks(List<ChunkEntity> batch, Map<String, ChunkEntity> batchByHash,
+         ImmutableList.Builder<Long> chunks) {
+      if (batch.isEmpty()) {
+         return;
+      }
+      chunkRepository.flush();
+      for (ChunkEntity chunk : batch) {
+         chunks.add(chunk.getId());
+      }
+      for (ChunkEntity chunk : batch) {
+         if (chunkRepository.contains(chunk)) {
+            chunkRepository.detach(chunk);
+         }
+      }
+      batch.clear();
+      batchByHash.clear();
+   }
+
+   private static int checkChunkSize(int chunkSize) {
+      checkArgument(chunkSize > 0 && chunkSize <= JdbcConstants.MAX_CHUNK_SIZE,
+            "chunk size must be between 1 and %s bytes, was %s", JdbcConstants.MAX_CHUNK_SIZE, chunkSize);
+      return chunkSize;
+   }
 }
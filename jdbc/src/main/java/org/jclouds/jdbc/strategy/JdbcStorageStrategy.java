@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -30,10 +31,15 @@ import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.BlobBuilder;
 import org.jclouds.blobstore.domain.ContainerAccess;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
 import org.jclouds.blobstore.domain.MutableStorageMetadata;
+import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.blobstore.domain.internal.MutableStorageMetadataImpl;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
+import org.jclouds.blobstore.options.CopyOptions;
 import org.jclouds.blobstore.options.CreateContainerOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jclouds.domain.Location;
@@ -41,6 +47,7 @@ import org.jclouds.domain.LocationBuilder;
 import org.jclouds.domain.LocationScope;
 import org.jclouds.io.ContentMetadata;
 import org.jclouds.jdbc.conversion.BlobEntityToBlob;
+import org.jclouds.jdbc.conversion.BlobMetadataRows;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.ContainerEntity;
 import org.jclouds.jdbc.predicates.validators.JdbcBlobKeyValidator;
@@ -48,6 +55,8 @@ import org.jclouds.jdbc.predicates.validators.JdbcContainerNameValidator;
 import org.jclouds.jdbc.service.JdbcService;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * JdbcStorageStrategy implements a blob store that stores objects
@@ -56,6 +65,9 @@ import com.google.common.collect.ImmutableList;
  */
 public class JdbcStorageStrategy implements LocalStorageStrategy {
 
+   private static final int DEFAULT_MAX_RESULTS = 1000;
+   private static final int MAX_PAGE_QUERY_SIZE = 1000;
+
    private final Provider<BlobBuilder> blobBuilders;
    private final JdbcService jdbcService;
    private final JdbcContainerNameValidator jdbcContainerNameValidator;
@@ -89,7 +101,7 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    @Override
    public boolean containerExists(String container) {
       jdbcContainerNameValidator.validate(container);
-      return jdbcService.findContainerByName(container) != null;
+      return jdbcService.containerExists(container);
    }
 
    /**
@@ -155,6 +167,29 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
       jdbcService.setContainerAccessByName(container, containerAccess);
    }
 
+   /**
+    * Sets the size of the chunks new blobs in the container are split into.
+    * Blobs already stored keep the chunk size they were written with.
+    *
+    * @param container the name of the container
+    * @param chunkSize the chunk size in bytes, or null to use the provider default
+    */
+   public void setContainerChunkSize(String container, Integer chunkSize) {
+      jdbcContainerNameValidator.validate(container);
+      jdbcService.setContainerChunkSizeByName(container, chunkSize);
+   }
+
+   /**
+    * Gets the size of the chunks new blobs in the container are split into
+    *
+    * @param container the name of the container
+    * @return the chunk size in bytes, the provider default unless the container sets its own, or null if the
+    *       container does not exist
+    */
+   public Integer getContainerChunkSize(String container) {
+      return jdbcService.findContainerChunkSize(container);
+   }
+
    /**
     * Deletes a container and all the blobs in it
     *
@@ -163,7 +198,7 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    @Override
    public void deleteContainer(String container) {
       jdbcContainerNameValidator.validate(container);
-      jdbcService.deleteBlobsByContainer(container);
+      deleteBlobsInRange(container, null, null, true);
       jdbcService.deleteContainerByName(container);
    }
 
@@ -174,7 +209,7 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public void clearContainer(String container) {
-      jdbcService.deleteBlobsByContainer(container);
+      deleteBlobsInRange(container, null, null, true);
    }
 
    /**
@@ -185,8 +220,9 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public void clearContainer(String container, ListContainerOptions options) {
-      if (options.getDir() != null) {
-         jdbcService.deleteBlobsByDirectory(container, options.getDir(), true);
+      String directory = directoryPrefix(options.getDir());
+      if (directory != null) {
+         deleteBlobsInRange(container, directory, successor(directory), true);
       }
       else {
          clearContainer(container);
@@ -235,12 +271,198 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public Iterable<String> getBlobKeysInsideContainer(String container) throws IOException {
-      List<BlobEntity> blobEntities = jdbcService.findBlobsByContainer(container);
-      ImmutableList.Builder<String> result = ImmutableList.builder();
-      for (BlobEntity blobEntity : blobEntities) {
-         result.add(blobEntity.getKey());
+      return jdbcService.findBlobKeysByContainer(container);
+   }
+
+   /**
+    * Lists a page of the blobs in a container. The prefix, marker, delimiter and maximum number of results
+    * are resolved by keyset queries ordered by blob key, so only the rows of the requested page are read.
+    * Common prefixes are skipped over with a single query each, whatever the number of blobs they hold.
+    * Listings of a directory by path separator are served by the parent path index instead, unless the
+    * container still holds blobs stored without a parent path.
+    *
+    * @param container the name of the container
+    * @param options options to filter the blobs listed, with the same semantics as the local blob store
+    * @return the blobs and common prefixes of the page, with the marker of the next page if there is one
+    */
+   public PageSet<? extends StorageMetadata> list(String container, ListContainerOptions options) {
+      String directory = directoryPrefix(options.getDir());
+      String prefix = null;
+      String delimiter = null;
+      String excludedKey = null;
+      if (directory != null) {
+         prefix = directory;
+         delimiter = options.isRecursive() ? null : getSeparator();
+         excludedKey = prefix;
       }
-      return result.build();
+      else if (options.getPrefix() != null) {
+         prefix = options.getPrefix();
+         delimiter = options.getDelimiter();
+      }
+      else if (!options.isRecursive() || options.getDelimiter() != null) {
+         delimiter = options.getDelimiter() == null ? getSeparator() : options.getDelimiter();
+      }
+      String marker = options.getMarker();
+      int maxResults = options.getMaxResults() != null ? options.getMaxResults() : DEFAULT_MAX_RESULTS;
+
+      // One more entry than requested is collected to know if there is a next page
+      List<StorageMetadata> contents;
+      String parentPath = prefix == null ? "" : prefix;
+      if (getSeparator().equals(delimiter) && (parentPath.isEmpty() || parentPath.endsWith(delimiter))
+            && !jdbcService.hasBlobsWithoutParentPath(container)) {
+         contents = listDirectory(container, parentPath, marker, excludedKey, maxResults);
+      }
+      else {
+         contents = listKeyRange(container, prefix, delimiter, marker, excludedKey, maxResults);
+      }
+
+      String nextMarker = null;
+      if (contents.size() > maxResults) {
+         contents = contents.subList(0, maxResults);
+         nextMarker = maxResults == 0 ? null : contents.get(maxResults - 1).getName();
+      }
+
+      if (options.isDetailed()) {
+         Map<String, MutableBlobMetadata> blobs = Maps.newHashMap();
+         for (StorageMetadata metadata : contents) {
+            if (metadata instanceof MutableBlobMetadata) {
+               blobs.put(metadata.getName(), (MutableBlobMetadata) metadata);
+            }
+         }
+         Map<String, Map<String, String>> userMetadata = jdbcService.findUserMetadataByKeys(container, blobs.keySet());
+         for (Map.Entry<String, Map<String, String>> entry : userMetadata.entrySet()) {
+            // User metadata keys are listed in lower case, as the local blob store does
+            Map<String, String> lowerCaseUserMetadata = Maps.newHashMap();
+            for (Map.Entry<String, String> metadata : entry.getValue().entrySet()) {
+               lowerCaseUserMetadata.put(metadata.getKey().toLowerCase(), metadata.getValue());
+            }
+            blobs.get(entry.getKey()).setUserMetadata(lowerCaseUserMetadata);
+         }
+      }
+
+      return new PageSetImpl<StorageMetadata>(contents, nextMarker);
+   }
+
+   /**
+    * Lists the blobs of a container in key order, skipping over the keys sharing a common prefix.
+    *
+    * @return up to one more entry than requested
+    */
+   private List<StorageMetadata> listKeyRange(String container, String prefix, String delimiter, String marker,
+         String excludedKey, int maxResults) {
+      String from = marker;
+      boolean fromInclusive = false;
+      if (prefix != null && (from == null || from.compareTo(prefix) < 0)) {
+         from = prefix;
+         fromInclusive = true;
+      }
+      String to = prefix == null ? null : successor(prefix);
+
+      List<StorageMetadata> contents = Lists.newArrayList();
+      while (contents.size() <= maxResults) {
+         int limit = Math.min(maxResults + 1 - contents.size(), MAX_PAGE_QUERY_SIZE);
+         List<Object[]> rows = jdbcService.findBlobMetadataPage(container, from, fromInclusive, to, limit);
+         boolean skipped = false;
+         for (Object[] row : rows) {
+            String key = (String) row[0];
+            from = key;
+            fromInclusive = false;
+            if (key.equals(excludedKey)) {
+               continue;
+            }
+            String commonPrefix = commonPrefix(key, prefix, delimiter);
+            if (commonPrefix == null) {
+               contents.add(BlobMetadataRows.toBlobMetadata(container, row));
+            }
+            else {
+               if (marker == null || commonPrefix.compareTo(marker) > 0) {
+                  MutableStorageMetadata metadata = new MutableStorageMetadataImpl();
+                  metadata.setType(StorageType.RELATIVE_PATH);
+                  metadata.setName(commonPrefix);
+                  contents.add(metadata);
+               }
+               // Continue the listing after the last key sharing the common prefix
+               from = successor(commonPrefix);
+               fromInclusive = true;
+               skipped = true;
+               break;
+            }
+            if (contents.size() > maxResults) {
+               break;
+            }
+         }
+         if (from == null || (!skipped && rows.size() < limit)) {
+            break;
+         }
+      }
+      return contents;
+   }
+
+   /**
+    * Lists the blobs and subdirectories directly inside a directory. Blobs are read from the parent path index,
+    * and each subdirectory is found with a single lookup of the smallest parent path after the previous one, so
+    * the subtrees of the directory are never scanned.
+    *
+    * @param directory the key prefix of the directory, an empty string for the root of the container
+    * @return up to one more entry than requested
+    */
+   private List<StorageMetadata> listDirectory(String container, String directory, String marker,
+         String excludedKey, int maxResults) {
+      String to = directory.isEmpty() ? null : successor(directory);
+      String from = marker != null && marker.compareTo(directory) > 0 ? marker : null;
+      String subdirectory = findSubdirectory(container, directory, from == null ? directory : from, false, to);
+      while (subdirectory != null && marker != null && subdirectory.compareTo(marker) <= 0) {
+         subdirectory = findSubdirectory(container, directory, successor(subdirectory), true, to);
+      }
+
+      List<StorageMetadata> contents = Lists.newArrayList();
+      List<Object[]> rows = ImmutableList.of();
+      int next = 0;
+      boolean moreRows = true;
+      while (contents.size() <= maxResults) {
+         if (next == rows.size() && moreRows) {
+            int limit = Math.min(maxResults + 1 - contents.size(), MAX_PAGE_QUERY_SIZE);
+            rows = jdbcService.findBlobMetadataPage(container, directory, from, false, null, limit);
+            next = 0;
+            moreRows = rows.size() == limit;
+         }
+         String key = next < rows.size() ? (String) rows.get(next)[0] : null;
+         if (key != null && (subdirectory == null || key.compareTo(subdirectory) < 0)) {
+            if (!key.equals(excludedKey)) {
+               contents.add(BlobMetadataRows.toBlobMetadata(container, rows.get(next)));
+            }
+            from = key;
+            next++;
+         }
+         else if (subdirectory != null) {
+            MutableStorageMetadata metadata = new MutableStorageMetadataImpl();
+            metadata.setType(StorageType.RELATIVE_PATH);
+            metadata.setName(subdirectory);
+            contents.add(metadata);
+            subdirectory = findSubdirectory(container, directory, successor(subdirectory), true, to);
+         }
+         else {
+            break;
+         }
+      }
+      return contents;
+   }
+
+   /**
+    * Finds the first subdirectory of a directory holding blobs with a parent path in a range.
+    *
+    * @return the key prefix of the subdirectory, or null if there is none
+    */
+   private String findSubdirectory(String container, String directory, String from, boolean fromInclusive,
+         String to) {
+      if (from == null) {
+         return null;
+      }
+      String parentPath = jdbcService.findFirstParentPath(container, from, fromInclusive, to);
+      if (parentPath == null) {
+         return null;
+      }
+      return parentPath.substring(0, parentPath.indexOf(getSeparator(), directory.length()) + 1);
    }
 
    /**
@@ -255,6 +477,17 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
       return blobEntityToBlob.apply(jdbcService.findBlobById(container, key));
    }
 
+   /**
+    * Gets the metadata of a blob without its content
+    *
+    * @param container the name of the container containing the blob
+    * @param key the key of the blob
+    * @return the metadata of the blob or null if the blob does not exist
+    */
+   public MutableBlobMetadata blobMetadata(String container, String key) {
+      return jdbcService.findBlobMetadata(container, key);
+   }
+
    /**
     * Store a blob in a container
     *
@@ -270,6 +503,54 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
       return jdbcService.createOrModifyBlob(container, blob).getEtag();
    }
 
+   /**
+    * Stores a part of a multipart upload as a blob split in chunks
+    *
+    * @param container the name of the container
+    * @param partNumber the number of the part in the upload
+    * @param blob the part to store
+    * @return the part, with the number of bytes stored
+    */
+   public MultipartPart putMultipartPart(String container, int partNumber, Blob blob) throws IOException {
+      jdbcContainerNameValidator.validate(container);
+      jdbcBlobKeyValidator.validate(blob.getMetadata().getName());
+      BlobEntity part = jdbcService.createMultipartPart(container, blob);
+      return MultipartPart.create(partNumber, part.getSize(), part.getEtag());
+   }
+
+   /**
+    * Completes a multipart upload by concatenating the chunks of its parts
+    *
+    * @param container the name of the container
+    * @param blob the blob to create, only its name and metadata are used
+    * @param partKeys the keys of the parts, in order
+    * @return the blob's etag, or null if the parts do not end on chunk boundaries and must be copied instead
+    */
+   public String completeMultipartUpload(String container, Blob blob, List<String> partKeys) {
+      jdbcBlobKeyValidator.validate(blob.getMetadata().getName());
+      BlobEntity blobEntity = jdbcService.completeMultipartUpload(container, blob, partKeys);
+      return blobEntity == null ? null : blobEntity.getEtag();
+   }
+
+   /**
+    * Copies a blob, sharing its content with the source blob instead of reading and storing it again
+    *
+    * @param fromContainer the name of the container containing the source blob
+    * @param fromKey the key of the source blob
+    * @param toContainer the name of the container to copy the blob to
+    * @param toKey the key of the copy
+    * @param options the content and user metadata of the copy
+    * @return the copy's etag, or null if the source blob does not exist
+    */
+   public String copyBlob(String fromContainer, String fromKey, String toContainer, String toKey,
+         CopyOptions options) {
+      jdbcContainerNameValidator.validate(toContainer);
+      jdbcBlobKeyValidator.validate(toKey);
+      BlobEntity blobEntity = jdbcService.copyBlob(fromContainer, fromKey, toContainer, toKey,
+            options.contentMetadata(), options.userMetadata());
+      return blobEntity == null ? null : blobEntity.getEtag();
+   }
+
    /**
     * Removes a blob from a container
     *
@@ -333,8 +614,17 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     * @return the number of blobs in the container
     */
    public long countBlobs(String container, ListContainerOptions options) {
-      return options.getDir() == null ? jdbcService.findBlobsByContainer(container).size()
-             : jdbcService.findBlobsByDirectory(container, options.getDir(), options.isRecursive()).size();
+      String directory = directoryPrefix(options.getDir());
+      if (directory == null) {
+         return jdbcService.countBlobs(container, null, null, null);
+      }
+      if (options.isRecursive()) {
+         return jdbcService.countBlobs(container, directory, successor(directory), null);
+      }
+      if (!jdbcService.hasBlobsWithoutParentPath(container)) {
+         return jdbcService.countBlobsByParentPath(container, directory);
+      }
+      return jdbcService.countBlobs(container, directory, successor(directory), getSeparator());
    }
 
    /**
@@ -345,9 +635,56 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     * @return true if the directory exists, false otherwise
     */
    public boolean directoryExists(String container, String directory) {
-      Blob blob = getBlob(container, directory);
-      return blob != null && "application/directory".equals(
-            blob.getMetadata().getContentMetadata().getContentType());
+      return "application/directory".equals(jdbcService.findContentType(container, directory));
+   }
+
+   /**
+    * Gets the key prefix of the blobs inside a directory.
+    *
+    * @return the prefix, or null if the directory is the root of the container
+    */
+   private String directoryPrefix(String directory) {
+      if (directory == null || directory.isEmpty()) {
+         return null;
+      }
+      return directory.endsWith(getSeparator()) ? directory : directory + getSeparator();
+   }
+
+   /**
+    * Deletes the blobs of a container in a key range, one bounded transaction at a time.
+    */
+   private void deleteBlobsInRange(String container, String from, String to, boolean includeDirectories) {
+      int deleted;
+      do {
+         deleted = jdbcService.deleteBlobBatch(container, from, to, includeDirectories);
+      } while (deleted > 0);
+   }
+
+   /**
+    * Gets the common prefix a key is rolled up into, including the delimiter.
+    *
+    * @return the common prefix, or null if the key is listed by itself
+    */
+   private static String commonPrefix(String key, String prefix, String delimiter) {
+      if (delimiter == null) {
+         return null;
+      }
+      int start = prefix == null ? 0 : prefix.length();
+      int index = key.indexOf(delimiter, start);
+      return index < 0 ? null : key.substring(0, index + delimiter.length());
+   }
+
+   /**
+    * Gets the smallest string greater than every string starting with the given prefix.
+    *
+    * @return the successor of the prefix, or null if there is none
+    */
+   private static String successor(String prefix) {
+      int end = prefix.length();
+      while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+         end--;
+      }
+      return end == 0 ? null : prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
    }
 
    /**
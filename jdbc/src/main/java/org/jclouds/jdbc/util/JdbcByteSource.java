@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import org.jclouds.jdbc.service.JdbcService;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ByteSource} over the chunks of a stored blob. Every chunk but the
+ * last one holds exactly {@code chunkSize} bytes, so slices open a
+ * {@link JdbcInputStream} over the positions of the chunks covering the
+ * requested range only.
+ */
+public class JdbcByteSource extends ByteSource {
+
+   private final JdbcService jdbcService;
+   private final Long payloadId;
+   private final int chunkCount;
+   private final int chunkSize;
+   private final Long contentLength;
+   private final ListeningExecutorService executor;
+   private final int prefetch;
+   private final boolean streaming;
+   private final long offset;
+   private final long length;
+
+   public JdbcByteSource(JdbcService jdbcService, Long payloadId, int chunkCount, int chunkSize, Long contentLength,
+         ListeningExecutorService executor, int prefetch) {
+      this(jdbcService, payloadId, chunkCount, chunkSize, contentLength, executor, prefetch, false);
+   }
+
+   /**
+    * @param chunkCount the number of chunks of the payload
+    * @param streaming whether chunks are streamed from the database instead of being loaded whole, in which
+    *       case they are not prefetched
+    */
+   public JdbcByteSource(JdbcService jdbcService, Long payloadId, int chunkCount, int chunkSize, Long contentLength,
+         ListeningExecutorService executor, int prefetch, boolean streaming) {
+      this(jdbcService, checkNotNull(payloadId, "payloadId"), chunkCount, chunkSize, contentLength, executor,
+            prefetch, streaming, 0, contentLength == null ? Long.MAX_VALUE : contentLength);
+   }
+
+   private JdbcByteSource(JdbcService jdbcService, Long payloadId, int chunkCount, int chunkSize,
+         Long contentLength, ListeningExecutorService executor, int prefetch, boolean streaming, long offset,
+         long length) {
+      checkArgument(chunkSize > 0, "chunkSize must be positive");
+      checkArgument(chunkCount >= 0, "chunkCount must be non-negative");
+      this.jdbcService = checkNotNull(jdbcService, "jdbcService");
+      this.payloadId = payloadId;
+      this.chunkCount = chunkCount;
+      this.chunkSize = chunkSize;
+      this.contentLength = contentLength;
+      this.executor = checkNotNull(executor, "executor");
+      this.prefetch = prefetch;
+      this.streaming = streaming;
+      this.offset = offset;
+      this.length = length;
+   }
+
+   @Override
+   public InputStream openStream() throws IOException {
+      int firstChunk = (int) Math.min(offset / chunkSize, chunkCount);
+      int lastChunk = chunkCount;
+      if (length != Long.MAX_VALUE) {
+         long end = offset + length;
+         lastChunk = (int) Math.min(end / chunkSize + (end % chunkSize == 0 ? 0 : 1), chunkCount);
+      }
+      if (length == 0 || firstChunk >= lastChunk) {
+         return new ByteArrayInputStream(new byte[0]);
+      }
+      InputStream in = streaming ? jdbcService.openChunkStream(payloadId, firstChunk, lastChunk)
+            : new JdbcInputStream(jdbcService, payloadId, firstChunk, lastChunk, executor, prefetch);
+      ByteStreams.skipFully(in, offset - (long) firstChunk * chunkSize);
+      return length == Long.MAX_VALUE ? in : ByteStreams.limit(in, length);
+   }
+
+   /**
+    * Copies the content to a file by transferring each chunk from its segment file when chunks are stored in
+    * files, so that the operating system copies the bytes without them going through the heap.
+    */
+   @Override
+   public long copyTo(OutputStream output) throws IOException {
+      // The length of the last chunk is only known from the content length
+      if (!(output instanceof FileOutputStream) || contentLength == null || !jdbcService.storesChunksInFiles()) {
+         return super.copyTo(output);
+      }
+      WritableByteChannel target = ((FileOutputStream) output).getChannel();
+      long end = Math.min(offset + length, contentLength);
+      long position = offset;
+      for (int chunk = (int) (offset / chunkSize); chunk < chunkCount && position < end; chunk++) {
+         long from = position - (long) chunk * chunkSize;
+         long count = Math.min(chunkSize - from, end - position);
+         if (!jdbcService.transferChunk(payloadId, chunk, from, count, target)) {
+            throw new IOException("Could not find chunk.");
+         }
+         position += count;
+      }
+      return position - offset;
+   }
+
+   @Override
+   public ByteSource slice(long offset, long length) {
+      checkArgument(offset >= 0, "offset (%s) may not be negative", offset);
+      checkArgument(length >= 0, "length (%s) may not be negative", length);
+      long maxLength = this.length - Math.min(offset, this.length);
+      return new JdbcByteSource(jdbcService, payloadId, chunkCount, chunkSize, contentLength, executor, prefetch,
+            streaming, this.offset + offset, Math.min(length, maxLength));
+   }
+
+   @Override
+   public long size() throws IOException {
+      if (contentLength == null) {
+         return super.size();
+      }
+      return Math.max(0, Math.min(length, contentLength - offset));
+   }
+
+}
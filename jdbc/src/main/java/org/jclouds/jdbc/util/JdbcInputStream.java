@@ -19,26 +19,62 @@ package org.jclouds.jdbc.util;
 import org.jclouds.jdbc.entity.ChunkEntity;
 import org.jclouds.jdbc.service.JdbcService;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
+/**
+ * Streams the content of a blob chunk by chunk. Chunks are looked up by their
+ * position in the payload, so the list of chunk ids is never loaded. While the
+ * caller drains the current chunk, up to {@code prefetch} following chunks are
+ * loaded in the background using the given executor.
+ */
 public class JdbcInputStream extends InputStream {
 
-   private JdbcService jdbcService;
+   private final JdbcService jdbcService;
+   private final ListeningExecutorService executor;
+   private final int prefetch;
+
+   private final Long payloadId;
+   private final int lastChunk;
+   private final Deque<Future<ChunkEntity>> pending = new ArrayDeque<Future<ChunkEntity>>();
+   private int nextChunk;
+
+   private byte[] data;
+   private int size;
+   private int position;
 
-   private final List<Long> chunks;
-   private ChunkEntity currentChunk;
-   private int bytesRead;
+   public JdbcInputStream(JdbcService jdbcService, Long payloadId, int firstChunk, int lastChunk) {
+      this(jdbcService, payloadId, firstChunk, lastChunk, MoreExecutors.sameThreadExecutor(), 0);
+   }
 
-   public JdbcInputStream(JdbcService jdbcService, List<Long> chunks) {
+   /**
+    * @param firstChunk the position of the first chunk to read
+    * @param lastChunk the position after the last chunk to read
+    */
+   public JdbcInputStream(JdbcService jdbcService, Long payloadId, int firstChunk, int lastChunk,
+         ListeningExecutorService executor, int prefetch) {
       this.jdbcService = checkNotNull(jdbcService, "jdbcService");
-      // Need to remove duplicates due to https://hibernate.atlassian.net/browse/HHH-6783
-      this.chunks = new ArrayList<Long>(new LinkedHashSet<Long>(checkNotNull(chunks, "chunks")));
+      this.executor = checkNotNull(executor, "executor");
+      checkArgument(prefetch >= 0, "prefetch must be non-negative");
+      checkArgument(firstChunk >= 0 && firstChunk <= lastChunk, "invalid chunk range [%s, %s)", firstChunk,
+            lastChunk);
+      this.prefetch = prefetch;
+      this.payloadId = checkNotNull(payloadId, "payloadId");
+      this.nextChunk = firstChunk;
+      this.lastChunk = lastChunk;
       try {
          readNextChunk();
       } catch (IOException e) {
@@ -47,30 +83,108 @@ public class JdbcInputStream extends InputStream {
    }
 
    @Override
-   public synchronized int read() throws IOException {
-      if (hasFinished()) {
+   public int read() throws IOException {
+      if (!ensureData()) {
          return -1;
       }
-      int b = currentChunk.getData()[bytesRead] & 0xff;
-      bytesRead = bytesRead + 1;
-      if (bytesRead >= currentChunk.getSize()) {
-         readNextChunk();
+      return data[position++] & 0xff;
+   }
+
+   @Override
+   public int read(byte[] b, int off, int len) throws IOException {
+      checkNotNull(b, "b");
+      checkPositionIndexes(off, off + len, b.length);
+      if (len == 0) {
+         return 0;
+      }
+      int total = 0;
+      while (total < len && ensureData()) {
+         int count = Math.min(len - total, size - position);
+         System.arraycopy(data, position, b, off + total, count);
+         position += count;
+         total += count;
       }
-      return b;
+      return total == 0 ? -1 : total;
+   }
+
+   @Override
+   public long skip(long n) throws IOException {
+      long skipped = 0;
+      while (skipped < n && ensureData()) {
+         int count = (int) Math.min(n - skipped, size - position);
+         position += count;
+         skipped += count;
+      }
+      return skipped;
+   }
+
+   @Override
+   public int available() {
+      return data == null ? 0 : size - position;
    }
 
-   private boolean hasFinished() {
-      return currentChunk == null || (chunks.size() == 0 && bytesRead >= currentChunk.getSize());
+   @Override
+   public void close() throws IOException {
+      for (Future<ChunkEntity> future : pending) {
+         // never interrupt a load in flight: an interrupted thread makes H2 close its file channel
+         future.cancel(false);
+      }
+      pending.clear();
+      nextChunk = lastChunk;
+      data = null;
    }
 
-   private void readNextChunk() throws IOException {
-      if (chunks.size() > 0) {
-         this.currentChunk = jdbcService.findChunkById(chunks.get(0));
-         if (currentChunk == null) {
-            throw new IOException("Could not find chunk.");
+   /**
+    * Makes sure there are bytes left in the current chunk, loading the
+    * following one if needed.
+    *
+    * @return false if the end of the stream has been reached
+    */
+   private boolean ensureData() throws IOException {
+      while (data != null && position >= size) {
+         if (!readNextChunk()) {
+            data = null;
          }
-         chunks.remove(0);
-         this.bytesRead = 0;
+      }
+      return data != null;
+   }
+
+   private boolean readNextChunk() throws IOException {
+      if (pending.isEmpty() && nextChunk >= lastChunk) {
+         return false;
+      }
+      ChunkEntity chunk = pending.isEmpty() ? jdbcService.findChunk(payloadId, nextChunk++)
+            : await(pending.removeFirst());
+      if (chunk == null) {
+         throw new IOException("Could not find chunk.");
+      }
+      this.data = chunk.getData();
+      this.size = chunk.getSize();
+      this.position = 0;
+      schedulePrefetch();
+      return true;
+   }
+
+   private void schedulePrefetch() {
+      while (pending.size() < prefetch && nextChunk < lastChunk) {
+         final int position = nextChunk++;
+         pending.addLast(executor.submit(new Callable<ChunkEntity>() {
+            @Override
+            public ChunkEntity call() {
+               return jdbcService.findChunk(payloadId, position);
+            }
+         }));
+      }
+   }
+
+   private static ChunkEntity await(Future<ChunkEntity> future) throws IOException {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while loading chunk");
+      } catch (ExecutionException e) {
+         throw new IOException("Could not load chunk", e.getCause());
       }
    }
 
@@ -17,28 +17,52 @@
 package org.jclouds.jdbc;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Key;
 import com.google.inject.Module;
-import com.google.inject.persist.jpa.JpaPersistModule;
+import com.google.inject.name.Names;
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobRequestSigner;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.ContainerNotFoundException;
+import org.jclouds.blobstore.KeyNotFoundException;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
 import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.CopyOptions;
 import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.options.PutOptions;
 import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.io.ContentMetadataBuilder;
+import org.jclouds.io.ByteStreams2;
 import org.jclouds.io.Payload;
+import org.jclouds.io.payloads.ByteSourcePayload;
 import org.jclouds.io.payloads.PhantomPayload;
 import org.jclouds.io.payloads.StringPayload;
+import org.jclouds.jdbc.blobstore.JdbcAsyncBlobStore;
+import org.jclouds.jdbc.blobstore.JdbcBlobStore;
+import org.jclouds.jdbc.config.JdbcPersistenceModule;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.strategy.JdbcStorageStrategy;
 import org.jclouds.util.Closeables2;
 import org.jclouds.util.Strings2;
 import org.testng.annotations.AfterMethod;
@@ -46,11 +70,19 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.google.common.io.BaseEncoding.base16;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -80,7 +112,7 @@ public abstract class BaseJdbcBlobStoreTest {
    @BeforeMethod
    protected void setUp() throws Exception {
       context = ContextBuilder.newBuilder(PROVIDER)
-            .modules(ImmutableSet.<Module> of(new JpaPersistModule(jpaModuleName)))
+            .modules(ImmutableSet.<Module> of(new JdbcPersistenceModule(jpaModuleName)))
             .build(BlobStoreContext.class);
       blobStore = context.getBlobStore();
    }
@@ -208,6 +240,169 @@ public abstract class BaseJdbcBlobStoreTest {
       checkForContainerContent(CONTAINER_NAME, "rrr/", blobsExpected);
    }
 
+   @Test
+   public void testListPagesWithCommonPrefixes() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      for (String key : ImmutableList.of("a", "b/1", "b/2", "b/3", "c", "d/1", "e")) {
+         createBlobInContainer(CONTAINER_NAME, key);
+      }
+
+      List<String> names = Lists.newArrayList();
+      String marker = null;
+      int pages = 0;
+      do {
+         ListContainerOptions options = ListContainerOptions.Builder.maxResults(2);
+         if (marker != null) {
+            options.afterMarker(marker);
+         }
+         PageSet<? extends StorageMetadata> page = blobStore.list(CONTAINER_NAME, options);
+         assertThat(page.size()).isLessThanOrEqualTo(2);
+         for (StorageMetadata metadata : page) {
+            names.add(metadata.getName());
+         }
+         marker = page.getNextMarker();
+         pages++;
+      } while (marker != null);
+
+      assertThat(names).containsExactly("a", "b/", "c", "d/", "e");
+      assertThat(pages).isEqualTo(3);
+   }
+
+   @Test
+   public void testListDirectoryOfDeepTree() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      for (String key : ImmutableList.of("top", "dir/a", "dir/b-c", "dir/b/1/2/3", "dir/b/4", "dir/c/", "dir/d/e/f",
+            "dir/z", "dir2/a")) {
+         createBlobInContainer(CONTAINER_NAME, key);
+      }
+
+      List<String> names = Lists.newArrayList();
+      String marker = null;
+      do {
+         ListContainerOptions options = ListContainerOptions.Builder.inDirectory("dir").maxResults(2);
+         if (marker != null) {
+            options.afterMarker(marker);
+         }
+         PageSet<? extends StorageMetadata> page = blobStore.list(CONTAINER_NAME, options);
+         for (StorageMetadata metadata : page) {
+            names.add(metadata.getName());
+         }
+         marker = page.getNextMarker();
+      } while (marker != null);
+
+      assertThat(names).containsExactly("dir/a", "dir/b-c", "dir/b/", "dir/c/", "dir/d/", "dir/z");
+      assertThat(blobStore.countBlobs(CONTAINER_NAME, ListContainerOptions.Builder.inDirectory("dir"))).isEqualTo(3);
+   }
+
+   @Test
+   public void testAsyncBlobStore() throws Exception {
+      JdbcAsyncBlobStore asyncBlobStore = context.utils().injector().getInstance(JdbcAsyncBlobStore.class);
+      assertThat(asyncBlobStore.createContainerInLocation(null, CONTAINER_NAME).get()).isTrue();
+
+      List<ListenableFuture<String>> puts = Lists.newArrayList();
+      List<String> names = Lists.newArrayList();
+      for (int i = 0; i < 10; i++) {
+         names.add(BLOB_NAME + i);
+         puts.add(asyncBlobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME + i).payload("blob " + i)
+               .build()));
+      }
+      Futures.allAsList(puts).get();
+
+      names.add("missing");
+      List<BlobMetadata> metadata = asyncBlobStore.blobMetadata(CONTAINER_NAME, names).get();
+      assertThat(metadata).hasSize(11);
+      for (int i = 0; i < 10; i++) {
+         assertThat(metadata.get(i).getName()).isEqualTo(BLOB_NAME + i);
+         assertThat(metadata.get(i).getETag()).isEqualTo(puts.get(i).get());
+      }
+      assertThat(metadata.get(10)).isNull();
+
+      assertThat(Strings2.toStringAndClose(asyncBlobStore.getBlob(CONTAINER_NAME, BLOB_NAME + 3).get()
+            .getPayload().openStream())).isEqualTo("blob 3");
+      assertThat(asyncBlobStore.countBlobs(CONTAINER_NAME, ListContainerOptions.NONE).get()).isEqualTo(10);
+      asyncBlobStore.removeBlobs(CONTAINER_NAME, names).get();
+      assertThat(asyncBlobStore.list(CONTAINER_NAME, ListContainerOptions.NONE).get()).isEmpty();
+   }
+
+   @Test
+   public void testDatabaseQueueIsBounded() throws Exception {
+      tearDown();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_DB_THREADS, "1");
+      overrides.setProperty(JdbcConstants.PROPERTY_DB_QUEUE_SIZE, "1");
+      overrides.setProperty(JdbcConstants.PROPERTY_DB_QUEUE_POLICY, JdbcConstants.DB_QUEUE_ABORT);
+      context = ContextBuilder.newBuilder(PROVIDER)
+            .modules(ImmutableSet.<Module> of(new JdbcPersistenceModule(jpaModuleName)))
+            .overrides(overrides)
+            .build(BlobStoreContext.class);
+
+      ListeningExecutorService executor = context.utils().injector().getInstance(Key.get(
+            ListeningExecutorService.class, Names.named(JdbcConstants.PROPERTY_DB_THREADS)));
+      final CountDownLatch done = new CountDownLatch(1);
+      Runnable blocked = new Runnable() {
+         @Override
+         public void run() {
+            Uninterruptibles.awaitUninterruptibly(done);
+         }
+      };
+      try {
+         // One operation runs, one waits in the queue, the next one is rejected
+         executor.submit(blocked);
+         ListenableFuture<?> queued = executor.submit(blocked);
+         try {
+            executor.submit(blocked);
+            fail("Expected the operation to be rejected");
+         } catch (RejectedExecutionException expected) {
+         }
+         done.countDown();
+         queued.get();
+      } finally {
+         done.countDown();
+      }
+   }
+
+   @Test
+   public void testListWithPrefixAndDelimiter() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      for (String key : ImmutableList.of("a/b", "a/c/1", "a/c/2", "a/d", "a_x", "b")) {
+         createBlobInContainer(CONTAINER_NAME, key);
+      }
+
+      PageSet<? extends StorageMetadata> page = blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.prefix("a/").delimiter("/"));
+      List<String> names = Lists.newArrayList();
+      for (StorageMetadata metadata : page) {
+         names.add(metadata.getName());
+      }
+      assertThat(names).containsExactly("a/b", "a/c/", "a/d");
+      assertThat(page.getNextMarker()).isNull();
+
+      page = blobStore.list(CONTAINER_NAME, ListContainerOptions.Builder.prefix("a/").delimiter("/").afterMarker("a/c/"));
+      assertThat(page).hasSize(1);
+      assertThat(page.iterator().next().getName()).isEqualTo("a/d");
+      assertThat(page.iterator().next().getType()).isEqualTo(StorageType.BLOB);
+   }
+
+   @Test
+   public void testListWithDetailsReturnsUserMetadata() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      Blob blob = blobStore.blobBuilder(BLOB_NAME)
+            .userMetadata(ImmutableMap.of("key", "value"))
+            .payload(randomByteSource().slice(0, 1024))
+            .contentType("text/plain")
+            .build();
+      blobStore.putBlob(CONTAINER_NAME, blob);
+
+      StorageMetadata metadata = Iterables.getOnlyElement(blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.withDetails()));
+      assertThat(metadata.getUserMetadata()).isEqualTo(ImmutableMap.of("key", "value"));
+      assertThat(((BlobMetadata) metadata).getContentMetadata().getContentType()).isEqualTo("text/plain");
+      assertThat(metadata.getSize()).isEqualTo(1024L);
+
+      metadata = Iterables.getOnlyElement(blobStore.list(CONTAINER_NAME));
+      assertThat(metadata.getUserMetadata()).isEmpty();
+   }
+
    @Test
    public void testClearContainerNotExistingContainer() {
       blobStore.clearContainer(CONTAINER_NAME);
@@ -620,6 +815,194 @@ public abstract class BaseJdbcBlobStoreTest {
       }
    }
 
+   @Test
+   public void testRangesAcrossChunks() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      int chunkSize = JdbcConstants.DEFAULT_CHUNK_SIZE;
+      ByteSource input = randomByteSource().slice(0, 3 * chunkSize + 1024);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder("test").payload(input).build());
+
+      Blob blob = blobStore.getBlob(CONTAINER_NAME, "test", new GetOptions().range(chunkSize - 10, chunkSize + 9));
+      assertEquals(blob.getPayload().getContentMetadata().getContentLength(), Long.valueOf(20));
+      assertEquals(ByteStreams2.toByteArrayAndClose(blob.getPayload().openStream()),
+            input.slice(chunkSize - 10, 20).read());
+
+      blob = blobStore.getBlob(CONTAINER_NAME, "test", new GetOptions().tail(2048));
+      assertEquals(ByteStreams2.toByteArrayAndClose(blob.getPayload().openStream()),
+            input.slice(3 * chunkSize - 1024, 2048).read());
+   }
+
+   @Test
+   public void testOverwriteWhileReading() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      int chunkSize = JdbcConstants.DEFAULT_CHUNK_SIZE;
+      ByteSource input = randomByteSource().slice(0, 8 * chunkSize);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME).payload(input).build());
+
+      Blob blob = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME);
+      InputStream in = blob.getPayload().openStream();
+      try {
+         byte[] firstChunk = new byte[chunkSize];
+         ByteStreams.readFully(in, firstChunk);
+         assertEquals(firstChunk, input.slice(0, chunkSize).read());
+
+         // The stream must not go on with the chunks of the new version
+         blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME)
+               .payload(randomByteSource().slice(chunkSize, 8 * chunkSize)).build());
+         try {
+            ByteStreams.toByteArray(in);
+            fail("reading a replaced blob should fail");
+         } catch (IOException expected) {
+         }
+      } finally {
+         Closeables2.closeQuietly(in);
+      }
+   }
+
+   @Test
+   public void testCopyBlob() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      blobStore.createContainerInLocation(null, CONTAINER_NAME + "2");
+      ByteSource input = randomByteSource().slice(0, 2 * JdbcConstants.DEFAULT_CHUNK_SIZE + 1024);
+      String eTag = blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME)
+            .userMetadata(ImmutableMap.of("key", "value"))
+            .payload(input)
+            .contentType("application/octet-stream")
+            .build());
+
+      assertEquals(blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME + "2", BLOB_NAME,
+            CopyOptions.NONE), eTag);
+      Blob copy = blobStore.getBlob(CONTAINER_NAME + "2", BLOB_NAME);
+      assertEquals(copy.getMetadata().getUserMetadata(), ImmutableMap.of("key", "value"));
+      assertEquals(copy.getMetadata().getContentMetadata().getContentType(), "application/octet-stream");
+      assertEquals(ByteStreams2.toByteArrayAndClose(copy.getPayload().openStream()), input.read());
+
+      blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy", CopyOptions.builder()
+            .contentMetadata(ContentMetadataBuilder.create().contentType("text/plain").build())
+            .userMetadata(ImmutableMap.of("other", "value"))
+            .build());
+      BlobMetadata metadata = blobStore.blobMetadata(CONTAINER_NAME, BLOB_NAME + "-copy");
+      assertEquals(metadata.getUserMetadata(), ImmutableMap.of("other", "value"));
+      assertEquals(metadata.getContentMetadata().getContentType(), "text/plain");
+      assertEquals(metadata.getSize(), Long.valueOf(input.size()));
+
+      try {
+         blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy",
+               CopyOptions.builder().ifMatch("\"wrong\"").build());
+         fail("copy should not happen if the etag does not match");
+      } catch (HttpResponseException expected) {
+         assertEquals(expected.getResponse().getStatusCode(), 412);
+      }
+      try {
+         blobStore.copyBlob(CONTAINER_NAME, "missing", CONTAINER_NAME, BLOB_NAME + "-copy", CopyOptions.NONE);
+         fail("copy of a missing blob should fail");
+      } catch (KeyNotFoundException expected) {
+      }
+   }
+
+   @Test
+   public void testCopyBlobOverExistingKey() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      ByteSource input = randomByteSource().slice(0, JdbcConstants.DEFAULT_CHUNK_SIZE + 1024);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME).payload(input).build());
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME + "-copy").payload("existing").build());
+      blobStore.setBlobAccess(CONTAINER_NAME, BLOB_NAME + "-copy", BlobAccess.PUBLIC_READ);
+
+      blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy", CopyOptions.NONE);
+      assertEquals(blobStore.getBlobAccess(CONTAINER_NAME, BLOB_NAME + "-copy"), BlobAccess.PRIVATE);
+      Blob copy = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME + "-copy");
+      assertEquals(ByteStreams2.toByteArrayAndClose(copy.getPayload().openStream()), input.read());
+   }
+
+   @Test
+   public void testMultipartUploadConcatenatesPartChunks() throws Exception {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      final int chunkSize = JdbcConstants.DEFAULT_CHUNK_SIZE;
+      assertEquals(blobStore.getMinimumMultipartPartSize(), chunkSize);
+      final ByteSource input = randomByteSource().slice(0, 4 * chunkSize + 100);
+      Blob blob = blobStore.blobBuilder(BLOB_NAME).userMetadata(ImmutableMap.of("key", "value"))
+            .payload(new byte[0]).contentType("text/plain").build();
+      final MultipartUpload mpu = blobStore.initiateMultipartUpload(CONTAINER_NAME, blob.getMetadata(),
+            new PutOptions());
+
+      // Parts are uploaded concurrently, each one in its own transaction
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      List<Future<MultipartPart>> futures = Lists.newArrayList();
+      try {
+         for (int i = 0; i < 3; i++) {
+            final int partNumber = i + 1;
+            futures.add(executor.submit(new Callable<MultipartPart>() {
+               @Override
+               public MultipartPart call() {
+                  ByteSource part = input.slice((partNumber - 1) * 2L * chunkSize, 2L * chunkSize);
+                  return blobStore.uploadMultipartPart(mpu, partNumber, new ByteSourcePayload(part));
+               }
+            }));
+         }
+         List<MultipartPart> parts = Lists.newArrayList();
+         for (Future<MultipartPart> future : futures) {
+            parts.add(future.get());
+         }
+         assertEquals(parts.get(0).partSize(), 2L * chunkSize);
+         assertEquals(blobStore.listMultipartUpload(mpu), parts);
+         String eTag = blobStore.completeMultipartUpload(mpu, parts);
+         assertTrue(eTag.endsWith("-3"), eTag);
+      } finally {
+         executor.shutdownNow();
+      }
+
+      JdbcService jdbcService = context.utils().injector().getInstance(JdbcService.class);
+      assertEquals(jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME).size(), 5);
+      assertEquals(jdbcService.findBlobKeysByContainer(CONTAINER_NAME), ImmutableList.of(BLOB_NAME));
+      assertTrue(blobStore.listMultipartUploads(CONTAINER_NAME).isEmpty());
+      Blob newBlob = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertEquals(newBlob.getMetadata().getUserMetadata(), ImmutableMap.of("key", "value"));
+      assertEquals(newBlob.getMetadata().getContentMetadata().getContentType(), "text/plain");
+      assertEquals(newBlob.getMetadata().getSize(), Long.valueOf(input.size()));
+      assertEquals(ByteStreams2.toByteArrayAndClose(newBlob.getPayload().openStream()), input.read());
+   }
+
+   @Test
+   public void testMinimumMultipartPartSizeFillsContainerChunks() {
+      JdbcStorageStrategy storageStrategy = context.utils().injector().getInstance(JdbcStorageStrategy.class);
+      JdbcBlobStore jdbcBlobStore = context.utils().injector().getInstance(JdbcBlobStore.class);
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      blobStore.createContainerInLocation(null, CONTAINER_NAME + "-other");
+      storageStrategy.setContainerChunkSize(CONTAINER_NAME + "-other", 3 * 1024 * 1024);
+
+      // Parts fill whole chunks of the container they are uploaded to, other containers do not matter
+      int chunkSize = JdbcConstants.DEFAULT_CHUNK_SIZE;
+      assertEquals(blobStore.getMinimumMultipartPartSize(), chunkSize);
+      assertEquals(jdbcBlobStore.getMinimumMultipartPartSize(CONTAINER_NAME), chunkSize);
+      assertEquals(jdbcBlobStore.getMinimumMultipartPartSize(CONTAINER_NAME + "-other"), 3L * 1024 * 1024);
+      assertEquals(jdbcBlobStore.getMaximumMultipartPartSize(CONTAINER_NAME + "-other") % (3L * 1024 * 1024), 0);
+
+      storageStrategy.setContainerChunkSize(CONTAINER_NAME + "-other", null);
+      assertEquals(jdbcBlobStore.getMinimumMultipartPartSize(CONTAINER_NAME + "-other"), chunkSize);
+      try {
+         jdbcBlobStore.getMinimumMultipartPartSize("missing");
+         fail("the part size of a missing container should not be known");
+      } catch (ContainerNotFoundException expected) {
+      }
+   }
+
+   @Test
+   public void testMultipartUploadWithUnalignedParts() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      ByteSource input = randomByteSource().slice(0, JdbcConstants.DEFAULT_CHUNK_SIZE + 2);
+      Blob blob = blobStore.blobBuilder(BLOB_NAME).payload(new byte[0]).build();
+      MultipartUpload mpu = blobStore.initiateMultipartUpload(CONTAINER_NAME, blob.getMetadata(), new PutOptions());
+      MultipartPart part1 = blobStore.uploadMultipartPart(mpu, 1,
+            new ByteSourcePayload(input.slice(0, JdbcConstants.DEFAULT_CHUNK_SIZE + 1)));
+      MultipartPart part2 = blobStore.uploadMultipartPart(mpu, 2,
+            new ByteSourcePayload(input.slice(JdbcConstants.DEFAULT_CHUNK_SIZE + 1, 1)));
+      blobStore.completeMultipartUpload(mpu, ImmutableList.of(part1, part2));
+
+      assertTrue(blobStore.listMultipartUploads(CONTAINER_NAME).isEmpty());
+      Blob newBlob = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertEquals(ByteStreams2.toByteArrayAndClose(newBlob.getPayload().openStream()), input.read());
+   }
+
    @Test
    public void testBlobRequestSigner() throws Exception {
       String containerName = "container";
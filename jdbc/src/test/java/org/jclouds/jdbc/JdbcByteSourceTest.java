@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc;
+
+import com.google.common.io.ByteSource;
+import org.jclouds.jdbc.entity.ChunkEntity;
+import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.util.JdbcByteSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+@Test(groups = "unit", testName = "JdbcByteSourceTest")
+public class JdbcByteSourceTest {
+
+   private static final Long PAYLOAD_ID = 7L;
+   private static final byte[][] CHUNKS = { { 0, 1, 2 }, { 3, 4, 5 }, { 6, 7, 8 }, { 9 } };
+
+   private JdbcService mockJdbcService;
+   private ByteSource byteSource;
+
+   @BeforeMethod
+   public void setUp() {
+      mockJdbcService = createStrictMock(JdbcService.class);
+      byteSource = new JdbcByteSource(mockJdbcService, PAYLOAD_ID, CHUNKS.length, 3, 10L, sameThreadExecutor(), 0);
+   }
+
+   @Test
+   public void testFullRead() throws IOException {
+      expectChunks(0, 1, 2, 3);
+      assertThat(byteSource.read()).isEqualTo(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+      assertThat(byteSource.size()).isEqualTo(10);
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testSliceLoadsCoveringChunksOnly() throws IOException {
+      expectChunks(1, 2);
+      ByteSource slice = byteSource.slice(4, 4);
+      assertThat(slice.size()).isEqualTo(4);
+      assertThat(slice.read()).isEqualTo(new byte[] { 4, 5, 6, 7 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testSliceOnChunkBoundary() throws IOException {
+      expectChunks(1);
+      assertThat(byteSource.slice(3, 3).read()).isEqualTo(new byte[] { 3, 4, 5 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testTailSlice() throws IOException {
+      expectChunks(2, 3);
+      assertThat(byteSource.slice(7, 100).read()).isEqualTo(new byte[] { 7, 8, 9 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testNestedSlice() throws IOException {
+      expectChunks(2);
+      assertThat(byteSource.slice(2, 6).slice(4, 2).read()).isEqualTo(new byte[] { 6, 7 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testSliceBeyondEnd() throws IOException {
+      replay(mockJdbcService);
+      assertThat(byteSource.slice(20, 5).read()).isEmpty();
+      verify(mockJdbcService);
+   }
+
+   private void expectChunks(int... positions) {
+      for (int position : positions) {
+         byte[] data = CHUNKS[position];
+         expect(mockJdbcService.findChunk(PAYLOAD_ID, position)).andReturn(new ChunkEntity(data, data.length));
+      }
+      replay(mockJdbcService);
+   }
+
+}
@@ -16,44 +16,119 @@
  */
 package org.jclouds.jdbc;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jclouds.jdbc.entity.ChunkEntity;
 import org.jclouds.jdbc.service.JdbcService;
 import org.jclouds.jdbc.util.JdbcInputStream;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
 
 @Test(groups = "unit", testName = "JdbcInputStreamTest")
 public class JdbcInputStreamTest {
 
+   private static final Long PAYLOAD_ID = 7L;
+
    private JdbcService mockJdbcService;
+   private ListeningExecutorService executor;
 
    @BeforeMethod
    public void setUp() {
       mockJdbcService = createNiceMock(JdbcService.class);
+      executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+   }
+
+   @AfterMethod
+   public void tearDown() {
+      executor.shutdownNow();
    }
 
    @Test(expectedExceptions = IllegalArgumentException.class)
-   public void testInvalidIdList() throws IOException {
-      expect(mockJdbcService.findChunkById(0L)).andReturn(null);
-      new JdbcInputStream(mockJdbcService, ImmutableList.<Long>builder().add(0L).build());
+   public void testMissingChunk() throws IOException {
+      expect(mockJdbcService.findChunk(PAYLOAD_ID, 0)).andReturn(null);
+      replay(mockJdbcService);
+      new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 0, 1);
    }
 
    @Test(expectedExceptions = NullPointerException.class)
-   public void testNullList() {
-      new JdbcInputStream(mockJdbcService, null);
+   public void testNullPayloadId() {
+      new JdbcInputStream(mockJdbcService, null, 0, 1);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testInvalidRange() {
+      new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 2, 1);
+   }
+
+   @Test
+   public void testEmptyRange() throws IOException {
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 0, 0);
+      assertThat(jdbcInputStream.read()).isEqualTo(-1);
+   }
+
+   @Test
+   public void testReadFromPosition() throws IOException {
+      mockChunks(new byte[] { 1, 2, 3 }, new byte[] { 4, 5 }, new byte[] { 6 });
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 1, 3, executor, 1);
+      assertThat(ByteStreams.toByteArray(jdbcInputStream)).isEqualTo(new byte[] { 4, 5, 6 });
+   }
+
+   @Test
+   public void testBulkReadAcrossChunks() throws IOException {
+      mockChunks(new byte[] { 1, 2, 3 }, new byte[] { 4, 5 }, new byte[] { 6 });
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 0, 3, executor, 2);
+      assertThat(ByteStreams.toByteArray(jdbcInputStream)).isEqualTo(new byte[] { 1, 2, 3, 4, 5, 6 });
+      assertThat(jdbcInputStream.read()).isEqualTo(-1);
+   }
+
+   @Test
+   public void testPartialReads() throws IOException {
+      mockChunks(new byte[] { 1, 2, 3 }, new byte[] { 4, 5 });
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 0, 2);
+      byte[] buffer = new byte[4];
+      assertThat(jdbcInputStream.available()).isEqualTo(3);
+      assertThat(jdbcInputStream.read(buffer, 0, 2)).isEqualTo(2);
+      assertThat(jdbcInputStream.available()).isEqualTo(1);
+      assertThat(jdbcInputStream.read(buffer, 2, 2)).isEqualTo(2);
+      assertThat(buffer).isEqualTo(new byte[] { 1, 2, 3, 4 });
+      assertThat(jdbcInputStream.read()).isEqualTo(5);
+      assertThat(jdbcInputStream.read(buffer, 0, 4)).isEqualTo(-1);
    }
 
    @Test
-   public void testEmptyIdList() throws IOException {
-      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService,
-            ImmutableList.<Long>builder().build());
+   public void testSkipAcrossChunks() throws IOException {
+      mockChunks(new byte[] { 1, 2, 3 }, new byte[] { 4, 5 }, new byte[] { 6 });
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 0, 3, executor, 1);
+      assertThat(jdbcInputStream.skip(4)).isEqualTo(4);
+      assertThat(jdbcInputStream.read()).isEqualTo(5);
+      assertThat(jdbcInputStream.skip(10)).isEqualTo(1);
       assertThat(jdbcInputStream.read()).isEqualTo(-1);
    }
 
+   @Test(expectedExceptions = IOException.class)
+   public void testMissingPrefetchedChunk() throws IOException {
+      expect(mockJdbcService.findChunk(PAYLOAD_ID, 0)).andReturn(new ChunkEntity(new byte[] { 1 }, 1)).anyTimes();
+      expect(mockJdbcService.findChunk(PAYLOAD_ID, 1)).andReturn(null).anyTimes();
+      replay(mockJdbcService);
+      ByteStreams.toByteArray(new JdbcInputStream(mockJdbcService, PAYLOAD_ID, 0, 2, executor, 1));
+   }
+
+   private void mockChunks(byte[]... chunks) {
+      for (int i = 0; i < chunks.length; i++) {
+         expect(mockJdbcService.findChunk(PAYLOAD_ID, i))
+               .andReturn(new ChunkEntity(chunks[i], chunks[i].length)).anyTimes();
+      }
+      replay(mockJdbcService);
+   }
+
 }
@@ -17,12 +17,33 @@
 package org.jclouds.jdbc.module;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+import org.jclouds.concurrent.config.ExecutorServiceModule;
+import org.jclouds.jdbc.JdbcApiMetadata;
 import org.jclouds.jdbc.config.JPAInitializer;
 
+import java.util.Properties;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
 public class TestContextModule extends AbstractModule {
 
+   private final Properties overrides;
+
+   public TestContextModule() {
+      this(new Properties());
+   }
+
+   public TestContextModule(Properties overrides) {
+      this.overrides = overrides;
+   }
+
    @Override
    protected void configure() {
+      Properties properties = JdbcApiMetadata.defaultProperties();
+      properties.putAll(overrides);
+      Names.bindProperties(binder(), properties);
+      install(new ExecutorServiceModule(sameThreadExecutor()));
       bind(JPAInitializer.class).asEagerSingleton();
    }
 
@@ -16,31 +16,54 @@
  */
 package org.jclouds.jdbc.strategy;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.google.inject.persist.PersistService;
-import com.google.inject.persist.jpa.JpaPersistModule;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.ContainerAccess;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.blobstore.domain.internal.BlobBuilderImpl;
+import org.jclouds.blobstore.options.CopyOptions;
 import org.jclouds.blobstore.options.CreateContainerOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.io.payloads.ByteSourcePayload;
+import org.jclouds.jdbc.entity.BlobEntity;
+import org.jclouds.jdbc.entity.PayloadEntity;
 import org.jclouds.jdbc.module.TestContextModule;
+import org.jclouds.jdbc.config.JdbcPersistenceModule;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.service.JdbcService;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.persistence.EntityManagerFactory;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.jclouds.utils.TestUtils.randomByteSource;
+import static org.testng.Assert.fail;
 
 public abstract class BaseJdbcStorageStrategyTest {
 
@@ -58,7 +81,12 @@ public abstract class BaseJdbcStorageStrategyTest {
 
    @BeforeMethod
    protected void setUp() throws Exception {
-      injector = Guice.createInjector(ImmutableSet.<Module> of(new TestContextModule(), new JpaPersistModule(jpaModuleName)));
+      setUp(new Properties());
+   }
+
+   private void setUp(Properties overrides) {
+      injector = Guice.createInjector(ImmutableSet.<Module> of(new TestContextModule(overrides),
+            new JdbcPersistenceModule(jpaModuleName)));
       storageStrategy = injector.getInstance(JdbcStorageStrategy.class);
    }
 
@@ -67,6 +95,20 @@ public abstract class BaseJdbcStorageStrategyTest {
       injector.getInstance(PersistService.class).stop();
    }
 
+   @Test
+   public void testPersistenceUnitIsTunedFromProperties() throws Exception {
+      tearDown();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_JDBC_BATCH_SIZE, "64");
+      setUp(overrides);
+
+      Map<String, Object> properties = injector.getInstance(EntityManagerFactory.class).getProperties();
+      assertThat(properties).containsEntry("hibernate.jdbc.batch_size", "64");
+      assertThat(properties).containsEntry("eclipselink.jdbc.batch-writing.size", "64");
+      assertThat(properties).containsEntry("javax.persistence.sharedCache.mode", "NONE");
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+   }
+
    @Test
    public void testCreateContainerInLocation() {
       assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
@@ -105,6 +147,24 @@ public abstract class BaseJdbcStorageStrategyTest {
       assertThat(storageStrategy.containerExists(CONTAINER_NAME)).isFalse();
    }
 
+   @Test
+   public void testRecreateContainer() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(BLOB_NAME).build());
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isTrue();
+
+      storageStrategy.deleteContainer(CONTAINER_NAME);
+      assertThat(storageStrategy.containerExists(CONTAINER_NAME)).isFalse();
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME)).isNull();
+
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      assertThat(storageStrategy.containerExists(CONTAINER_NAME)).isTrue();
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(BLOB_NAME).build());
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream())
+            .hasContentEqualTo(ByteSource.wrap(BLOB_NAME.getBytes()).openStream());
+   }
+
    @Test
    public void testGetAllContainerNames() {
       assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME + "1", null, null)).isTrue();
@@ -167,6 +227,67 @@ public abstract class BaseJdbcStorageStrategyTest {
         }
     }
 
+   @Test
+   public void testGetBlobSpanningSeveralBatches() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 9 * JdbcConstants.DEFAULT_CHUNK_SIZE + 1234);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(blob.getMetadata().getContentMetadata().getContentLength()).isEqualTo(content.size());
+      assertThat(blob.getPayload().openStream()).hasContentEqualTo(content.openStream());
+   }
+
+   @Test
+   public void testContainerChunkSize() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 10 * 1024 + 100);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "1").payload(content).build());
+      storageStrategy.setContainerChunkSize(CONTAINER_NAME, 1024);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "2").payload(content).build());
+
+      for (String name : new String[] { BLOB_NAME + "1", BLOB_NAME + "2" }) {
+         ByteSource payload = (ByteSource) storageStrategy.getBlob(CONTAINER_NAME, name).getPayload().getRawContent();
+         assertThat(payload.read()).isEqualTo(content.read());
+         assertThat(payload.slice(1000, 3000).read()).isEqualTo(content.slice(1000, 3000).read());
+      }
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testInvalidContainerChunkSize() {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.setContainerChunkSize(CONTAINER_NAME, JdbcConstants.MAX_CHUNK_SIZE + 1);
+   }
+
+   @Test
+   public void testSmallBlobIsStoredInline() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, JdbcConstants.DEFAULT_INLINE_THRESHOLD);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+
+      PayloadEntity payload = injector.getInstance(JdbcService.class).findBlobById(CONTAINER_NAME, BLOB_NAME)
+            .getPayload();
+      assertThat(injector.getInstance(JdbcService.class).findChunkIds(CONTAINER_NAME, BLOB_NAME)).isEmpty();
+      assertThat(payload.getData()).isEqualTo(content.read());
+
+      Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(blob.getPayload()).isInstanceOf(ByteSourcePayload.class);
+      assertThat(blob.getPayload().openStream()).hasContentEqualTo(content.openStream());
+   }
+
+   @Test
+   public void testBlobAboveInlineThresholdIsChunked() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, JdbcConstants.DEFAULT_INLINE_THRESHOLD + 1);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+
+      PayloadEntity payload = injector.getInstance(JdbcService.class).findBlobById(CONTAINER_NAME, BLOB_NAME)
+            .getPayload();
+      assertThat(injector.getInstance(JdbcService.class).findChunkIds(CONTAINER_NAME, BLOB_NAME)).hasSize(1);
+      assertThat(payload.getData()).isNull();
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream())
+            .hasContentEqualTo(content.openStream());
+   }
+
    @Test
    public void testRemoveBlob() throws IOException {
       assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
@@ -203,6 +324,334 @@ public abstract class BaseJdbcStorageStrategyTest {
       assertThat(storageStrategy.containerExists(CONTAINER_NAME)).isFalse();
    }
 
+   @Test
+   public void testCountBlobs() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.createDirectory(CONTAINER_NAME, "dir");
+      for (String key : ImmutableList.of("a", "dir/a", "dir/b", "dir/sub/c", "dir2/d")) {
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(key).payload(key).build());
+      }
+
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME, ListContainerOptions.NONE)).isEqualTo(6);
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME, ListContainerOptions.Builder.inDirectory("dir")))
+            .isEqualTo(2);
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME,
+            ListContainerOptions.Builder.inDirectory("dir/").recursive())).isEqualTo(3);
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME, ListContainerOptions.Builder.inDirectory("missing")))
+            .isEqualTo(0);
+   }
+
+   @Test
+   public void testDirectoryExists() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.createDirectory(CONTAINER_NAME, "dir");
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(BLOB_NAME).build());
+
+      assertThat(storageStrategy.directoryExists(CONTAINER_NAME, "dir")).isTrue();
+      assertThat(storageStrategy.directoryExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+      assertThat(storageStrategy.directoryExists(CONTAINER_NAME, "missing")).isFalse();
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isTrue();
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, "missing")).isFalse();
+   }
+
+   @Test
+   public void testChunkDeduplication() throws IOException {
+      tearDown();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_DEDUP, "true");
+      setUp(overrides);
+
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.setContainerChunkSize(CONTAINER_NAME, 4096);
+      byte[] block = randomByteSource().slice(0, 4096).read();
+      ByteSource content = ByteSource.concat(ByteSource.wrap(block), randomByteSource().slice(4096, 4096),
+            ByteSource.wrap(block), ByteSource.wrap(block).slice(0, 100));
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "1").payload(content).build());
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "2").payload(content).build());
+
+      JdbcService jdbcService = injector.getInstance(JdbcService.class);
+      List<Long> chunks = jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME + "1");
+      assertThat(chunks).hasSize(4);
+      assertThat(chunks.get(2)).isEqualTo(chunks.get(0));
+      assertThat(chunks.get(1)).isNotEqualTo(chunks.get(0));
+      assertThat(jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME + "2"))
+            .containsExactlyElementsOf(chunks);
+      assertThat(jdbcService.findChunkById(chunks.get(0)).getRefCount()).isEqualTo(4);
+
+      // Overwriting with the same content and deleting a copy keeps the shared chunks
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "1").payload(content).build());
+      storageStrategy.removeBlob(CONTAINER_NAME, BLOB_NAME + "2");
+      assertThat(jdbcService.findChunkById(chunks.get(0)).getRefCount()).isEqualTo(2);
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME + "1").getPayload().openStream())
+            .hasContentEqualTo(content.openStream());
+
+      storageStrategy.clearContainer(CONTAINER_NAME);
+      for (Long chunk : chunks) {
+         assertThat(jdbcService.findChunkById(chunk)).isNull();
+      }
+   }
+
+   @Test
+   public void testBlobMetadataCache() throws Exception {
+      tearDown();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_METADATA_CACHE_SIZE, "1048576");
+      setUp(overrides);
+
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload("first")
+            .contentType("text/plain").userMetadata(ImmutableMap.of("owner", "jclouds")).build());
+
+      MutableBlobMetadata metadata = storageStrategy.blobMetadata(CONTAINER_NAME, BLOB_NAME);
+      assertThat(metadata.getName()).isEqualTo(BLOB_NAME);
+      assertThat(metadata.getContainer()).isEqualTo(CONTAINER_NAME);
+      assertThat(metadata.getSize()).isEqualTo(5);
+      assertThat(metadata.getContentMetadata().getContentType()).isEqualTo("text/plain");
+      assertThat(metadata.getUserMetadata()).containsEntry("owner", "jclouds");
+      String eTag = metadata.getETag();
+
+      // Cached metadata is copied, changing it does not change the cache
+      metadata.setETag("changed");
+      assertThat(storageStrategy.blobMetadata(CONTAINER_NAME, BLOB_NAME).getETag()).isEqualTo(eTag);
+
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload("second blob").build());
+      metadata = storageStrategy.blobMetadata(CONTAINER_NAME, BLOB_NAME);
+      assertThat(metadata.getSize()).isEqualTo(11);
+      assertThat(metadata.getETag()).isNotEqualTo(eTag);
+      assertThat(metadata.getUserMetadata()).isEmpty();
+
+      storageStrategy.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy", CopyOptions.NONE);
+      assertThat(storageStrategy.blobMetadata(CONTAINER_NAME, BLOB_NAME + "-copy").getSize()).isEqualTo(11);
+
+      storageStrategy.removeBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(storageStrategy.blobMetadata(CONTAINER_NAME, BLOB_NAME)).isNull();
+      storageStrategy.clearContainer(CONTAINER_NAME);
+      assertThat(storageStrategy.blobMetadata(CONTAINER_NAME, BLOB_NAME + "-copy")).isNull();
+      assertThat(storageStrategy.blobMetadata("missing", BLOB_NAME)).isNull();
+   }
+
+   @Test
+   public void testChunkStreaming() throws Exception {
+      tearDown();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_STREAMING, "true");
+      setUp(overrides);
+
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.setContainerChunkSize(CONTAINER_NAME, 4096);
+      ByteSource content = randomByteSource().slice(0, 3 * 4096 + 100);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content)
+            .contentLength(content.size()).build());
+
+      JdbcService jdbcService = injector.getInstance(JdbcService.class);
+      List<Long> chunks = jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME);
+      assertThat(chunks).hasSize(4);
+      assertThat(jdbcService.findChunkById(chunks.get(0)).getData()).isEqualTo(content.slice(0, 4096).read());
+      assertThat(jdbcService.findChunkById(chunks.get(3)).getSize()).isEqualTo(100);
+
+      Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME);
+      InputStream in = blob.getPayload().openStream();
+      try {
+         assertThat(in).hasContentEqualTo(content.openStream());
+      } finally {
+         in.close();
+      }
+      in = ((ByteSource) blob.getPayload().getRawContent()).slice(4000, 5000).openStream();
+      try {
+         assertThat(in).hasContentEqualTo(content.slice(4000, 5000).openStream());
+      } finally {
+         in.close();
+      }
+
+      // Blobs of unknown length are still chunked in memory
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME)
+            .payload(content.openStream()).build());
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream())
+            .hasContentEqualTo(content.openStream());
+      for (Long chunk : chunks) {
+         assertThat(jdbcService.findChunkById(chunk)).isNull();
+      }
+   }
+
+   @Test
+   public void testChunkFiles() throws Exception {
+      tearDown();
+      File directory = Files.createTempDir();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_DIRECTORY, directory.getPath());
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_SEGMENT_SIZE, "10000");
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_STREAMING, "true");
+      overrides.setProperty(JdbcConstants.PROPERTY_POOL_SIZE, "2");
+      setUp(overrides);
+      try {
+         assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+         storageStrategy.setContainerChunkSize(CONTAINER_NAME, 4096);
+         ByteSource content = randomByteSource().slice(0, 3 * 4096 + 100);
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content)
+               .contentLength(content.size()).build());
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "-unknown-length")
+               .payload(content.openStream()).build());
+
+         // Chunks keep their location only, segments are started once they would exceed the segment size
+         JdbcService jdbcService = injector.getInstance(JdbcService.class);
+         List<Long> chunks = jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME);
+         assertThat(chunks).hasSize(4);
+         assertThat(jdbcService.findChunkById(chunks.get(0)).getSegmentId()).isEqualTo(0);
+         assertThat(jdbcService.findChunkById(chunks.get(2)).getSegmentId()).isEqualTo(1);
+         assertThat(jdbcService.findChunkById(chunks.get(1)).getData()).isEqualTo(content.slice(4096, 4096).read());
+         assertThat(jdbcService.findChunkById(chunks.get(3)).getSize()).isEqualTo(100);
+         assertThat(jdbcService.findChunkById(chunks.get(3)).getSegmentOffset()).isEqualTo(4096);
+
+         for (String name : ImmutableList.of(BLOB_NAME, BLOB_NAME + "-unknown-length")) {
+            ByteSource payload = (ByteSource) storageStrategy.getBlob(CONTAINER_NAME, name).getPayload()
+                  .getRawContent();
+            assertThat(payload.contentEquals(content)).isTrue();
+            assertThat(payload.slice(4000, 5000).contentEquals(content.slice(4000, 5000))).isTrue();
+            File copy = new File(directory, "copy");
+            payload.slice(4000, 9000).copyTo(Files.asByteSink(copy));
+            assertThat(Files.asByteSource(copy).contentEquals(content.slice(4000, 9000))).isTrue();
+            OutputStream out = new FileOutputStream(copy);
+            try {
+               assertThat(payload.slice(100, 8292).copyTo(out)).isEqualTo(8292);
+            } finally {
+               out.close();
+            }
+            assertThat(Files.asByteSource(copy).contentEquals(content.slice(100, 8292))).isTrue();
+         }
+
+         // Streams of chunks stored in files hold no connection, more of them than pooled connections stay open
+         List<InputStream> streams = Lists.newArrayList();
+         try {
+            for (int i = 0; i < 4; i++) {
+               InputStream stream = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+               streams.add(stream);
+               ByteStreams.skipFully(stream, 4000);
+            }
+            assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isTrue();
+            for (InputStream stream : streams) {
+               assertThat(stream).hasContentEqualTo(content.slice(4000, content.size()).openStream());
+            }
+         } finally {
+            for (InputStream stream : streams) {
+               stream.close();
+            }
+         }
+      } finally {
+         for (File file : directory.listFiles()) {
+            assertThat(file.delete()).isTrue();
+         }
+         assertThat(directory.delete()).isTrue();
+      }
+   }
+
+   @Test
+   public void testCompactChunkSegments() throws Exception {
+      tearDown();
+      File directory = Files.createTempDir();
+      Properties overrides = new Properties();
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_DIRECTORY, directory.getPath());
+      overrides.setProperty(JdbcConstants.PROPERTY_CHUNK_SEGMENT_SIZE, "10000");
+      overrides.setProperty(JdbcConstants.PROPERTY_INLINE_THRESHOLD, "0");
+      setUp(overrides);
+      try {
+         assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+         storageStrategy.setContainerChunkSize(CONTAINER_NAME, 4096);
+         ByteSource content = randomByteSource().slice(0, 3 * 4096);
+         // Segment 0 holds two chunks, segment 1 starts with the third one
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content)
+               .contentLength(content.size()).build());
+         // The chunks of a blob whose transaction rolls back are dead bytes of segments 1 and 2
+         ByteSource rolledBack = content.slice(0, 2 * 4096);
+         try {
+            storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "-rolled-back")
+                  .payload(rolledBack).contentLength(rolledBack.size())
+                  .contentMD5(Hashing.md5().hashInt(0)).build());
+            fail("Expected an MD5 mismatch");
+         } catch (IOException expected) {
+         }
+         // Segment 2 ends with a live chunk, segment 3 is the current one
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "-kept").payload(rolledBack)
+               .contentLength(rolledBack.size()).build());
+         storageStrategy.removeBlob(CONTAINER_NAME, BLOB_NAME);
+
+         JdbcService jdbcService = injector.getInstance(JdbcService.class);
+         assertThat(jdbcService.compactChunkSegments()).isEqualTo(2 * 8192);
+         assertThat(directory.list()).containsOnly("chunks-2.seg", "chunks-3.seg");
+         // The live chunk of segment 2 has been moved, the segment is deleted by the next compaction
+         List<Long> chunks = jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME + "-kept");
+         assertThat(jdbcService.findChunkById(chunks.get(0)).getSegmentId()).isEqualTo(3);
+         assertThat(jdbcService.compactChunkSegments()).isEqualTo(8192);
+         assertThat(directory.list()).containsOnly("chunks-3.seg");
+
+         ByteSource payload = (ByteSource) storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME + "-kept").getPayload()
+               .getRawContent();
+         assertThat(payload.contentEquals(rolledBack)).isTrue();
+      } finally {
+         for (File file : directory.listFiles()) {
+            assertThat(file.delete()).isTrue();
+         }
+         assertThat(directory.delete()).isTrue();
+      }
+   }
+
+   @Test
+   public void testCopyBlobSharesChunks() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 2 * JdbcConstants.DEFAULT_CHUNK_SIZE + 100);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content)
+            .userMetadata(ImmutableMap.of("key", "value")).build());
+      String eTag = storageStrategy.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy",
+            CopyOptions.NONE);
+
+      JdbcService jdbcService = injector.getInstance(JdbcService.class);
+      List<Long> chunks = jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME);
+      BlobEntity copy = jdbcService.findBlobById(CONTAINER_NAME, BLOB_NAME + "-copy");
+      assertThat(copy.getEtag()).isEqualTo(eTag);
+      assertThat(copy.getUserMetadata()).containsEntry("key", "value");
+      assertThat(jdbcService.findChunkIds(CONTAINER_NAME, BLOB_NAME + "-copy")).containsExactlyElementsOf(chunks);
+      assertThat(jdbcService.findChunkById(chunks.get(0)).getRefCount()).isEqualTo(2);
+
+      // Copying onto itself or removing the source keeps the shared chunks
+      storageStrategy.copyBlob(CONTAINER_NAME, BLOB_NAME + "-copy", CONTAINER_NAME, BLOB_NAME + "-copy",
+            CopyOptions.NONE);
+      storageStrategy.removeBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(jdbcService.findChunkById(chunks.get(0)).getRefCount()).isEqualTo(1);
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME + "-copy").getPayload().openStream())
+            .hasContentEqualTo(content.openStream());
+
+      storageStrategy.removeBlob(CONTAINER_NAME, BLOB_NAME + "-copy");
+      for (Long chunk : chunks) {
+         assertThat(jdbcService.findChunkById(chunk)).isNull();
+      }
+      assertThat(storageStrategy.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy",
+            CopyOptions.NONE)).isNull();
+   }
+
+   @Test
+   public void testClearDirectory() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.createDirectory(CONTAINER_NAME, "dir");
+      storageStrategy.createDirectory(CONTAINER_NAME, "dir/sub");
+      for (String key : ImmutableList.of("dir/a", "dir/sub/b", "dir2/c", "other")) {
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(key)
+               .payload(randomByteSource().slice(0, 2 * JdbcConstants.DEFAULT_CHUNK_SIZE))
+               .userMetadata(ImmutableMap.of("key", key))
+               .build());
+      }
+      JdbcService jdbcService = injector.getInstance(JdbcService.class);
+      List<Long> chunks = jdbcService.findChunkIds(CONTAINER_NAME, "dir/sub/b");
+      assertThat(chunks).hasSize(2);
+
+      storageStrategy.clearContainer(CONTAINER_NAME, ListContainerOptions.Builder.inDirectory("dir").recursive());
+
+      assertThat(storageStrategy.getBlobKeysInsideContainer(CONTAINER_NAME)).containsOnly("dir", "dir2/c", "other");
+      for (Long chunk : chunks) {
+         assertThat(jdbcService.findChunkById(chunk)).isNull();
+      }
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, "dir2/c").getMetadata().getUserMetadata())
+            .containsEntry("key", "dir2/c");
+   }
+
     private byte[] getByteArray(char c, int len) {
         byte[] array = new byte[len];
         Arrays.fill(array, (byte) c);